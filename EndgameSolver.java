@@ -0,0 +1,181 @@
+package at.magicbeansagent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Exact solver for positions with few stones left in the pits. Positions within the tablebase are looked up, larger
+ * ones up to maxStones are solved by alpha-beta search on the difference of future depot stones (see
+ * EndgameTablebase), which probes the tablebase as soon as enough stones are captured or banked.
+ *
+ * A search gives up after nodeLimit nodes. Results only depend on the position, so a position that is solved once is
+ * solved every time. Not thread-safe: every worker has its own solver, all of them may share one tablebase.
+ */
+public final class EndgameSolver {
+    // terminalValue() of a game that is not over
+    static final int RUNNING = Integer.MIN_VALUE;
+
+    private final FastGame.Layout layout;
+    private final int totalStones;
+    private final int maxStones;
+    private final int nodeLimit;
+    private final EndgameTablebase tablebase;
+    private final int tableStones;
+
+    // One board per search depth
+    private final List<FastGame> stack = new ArrayList<>();
+    private int nodes = 0;
+    private boolean aborted = false;
+
+    /**
+     * @param layout: Board layout.
+     * @param totalStones: Stones in the game, pits and depots.
+     * @param maxStones: Maximum number of stones in the pits for the alpha-beta search.
+     * @param nodeLimit: Nodes after which a search gives up.
+     * @param tablebase: Tablebase for the layout, or null.
+     */
+    public EndgameSolver(FastGame.Layout layout, int totalStones, int maxStones, int nodeLimit,
+                         EndgameTablebase tablebase) {
+        this.layout = layout;
+        this.totalStones = totalStones;
+        this.maxStones = maxStones;
+        this.nodeLimit = nodeLimit;
+        this.tablebase = tablebase;
+        this.tableStones = tablebase == null ? -1 : tablebase.maxStones();
+    }
+
+    /**
+     * @return Own pit stones minus enemy pit stones if a side is empty, i.e. the game is over, otherwise RUNNING.
+     */
+    static int terminalValue(FastGame game) {
+        FastGame.Layout layout = game.getLayout();
+        int own = layout.firstPit(game.getCurrentPlayer());
+        int enemy = layout.firstPit(1 - game.getCurrentPlayer());
+        int ownStones = 0;
+        int enemyStones = 0;
+        for (int i = 0; i < layout.n; i++) {
+            ownStones += game.stonesIn(own + i);
+            enemyStones += game.stonesIn(enemy + i);
+        }
+        return ownStones == 0 || enemyStones == 0 ? ownStones - enemyStones : RUNNING;
+    }
+
+    private int pitStones(FastGame game) {
+        return totalStones - game.stonesIn(layout.depot(0)) - game.stonesIn(layout.depot(1));
+    }
+
+    /**
+     * Tablebase lookup only, cheap enough for every playout move.
+     * @return Winner (player id or FastGame.DRAW) of a running game, or FastGame.NONE if not in the tablebase.
+     */
+    public int probe(FastGame game) {
+        if (pitStones(game) > tableStones) return FastGame.NONE;
+        return winner(game, tablebase.value(game));
+    }
+
+    /**
+     * @return Winner (player id or FastGame.DRAW) with perfect play, or FastGame.NONE if the position has too many
+     * stones or the search gave up.
+     */
+    public int solve(FastGame game) {
+        int winner = game.winner();
+        aborted = false;
+        if (winner != FastGame.NONE) return winner;
+        int stones = pitStones(game);
+        if (stones <= tableStones) return winner(game, tablebase.value(game));
+        if (stones > maxStones) return FastGame.NONE;
+
+        // Only the sign of depot difference + value matters: search with a window around -depotDifference.
+        int depotDifference = depotDifference(game);
+        int value = search(game, -depotDifference - 1, -depotDifference + 1);
+        return aborted ? FastGame.NONE : winner(game, value);
+    }
+
+    /**
+     * @return True if the last solve() gave up after nodeLimit nodes. It would give up again on the same position.
+     */
+    public boolean gaveUp() {
+        return aborted;
+    }
+
+    /**
+     * Picks a move that keeps the best outcome solve() finds: a win before a draw, before an unsolved move, before
+     * a loss.
+     * @return Pit to play, or FastGame.NONE if the position itself is not solved.
+     */
+    public int bestMove(FastGame game) {
+        if (game.winner() != FastGame.NONE || solve(game) == FastGame.NONE) return FastGame.NONE;
+        int player = game.getCurrentPlayer();
+        FastGame child = new FastGame(layout, Integer.MAX_VALUE);
+        int bestPit = FastGame.NONE;
+        int bestRank = -1;
+        for (int pit = layout.firstPit(player); pit < layout.depot(player); pit++) {
+            if (game.stonesIn(pit) == 0) continue;
+            child.copyFrom(game);
+            child.play(pit);
+            int winner = solve(child);
+            int rank = winner == player ? 3 : winner == FastGame.DRAW ? 2 : winner == FastGame.NONE ? 1 : 0;
+            if (rank > bestRank) {
+                bestRank = rank;
+                bestPit = pit;
+            }
+        }
+        return bestPit;
+    }
+
+    private int depotDifference(FastGame game) {
+        int player = game.getCurrentPlayer();
+        return game.stonesIn(layout.depot(player)) - game.stonesIn(layout.depot(1 - player));
+    }
+
+    private int winner(FastGame game, int value) {
+        int outcome = depotDifference(game) + value;
+        if (outcome == 0) return FastGame.DRAW;
+        return outcome > 0 ? game.getCurrentPlayer() : 1 - game.getCurrentPlayer();
+    }
+
+    private int search(FastGame game, int alpha, int beta) {
+        nodes = 0;
+        aborted = false;
+        at(0).copyFrom(game);
+        return search(0, alpha, beta);
+    }
+
+    /**
+     * Fail-soft alpha-beta on the difference of future depot stones. An extra turn keeps the perspective.
+     */
+    private int search(int depth, int alpha, int beta) {
+        FastGame game = at(depth);
+        int value = terminalValue(game);
+        if (value != RUNNING) return value;
+        if (pitStones(game) <= tableStones) return tablebase.value(game);
+        if (++nodes > nodeLimit) {
+            aborted = true;
+            return 0;
+        }
+
+        int player = game.getCurrentPlayer();
+        int depot = layout.depot(player);
+        FastGame child = at(depth + 1);
+        int best = Integer.MIN_VALUE;
+        // Pits close to the depot first: they are the likely extra turns.
+        for (int pit = depot - 1; pit >= layout.firstPit(player); pit--) {
+            if (game.stonesIn(pit) == 0) continue;
+            child.copyFrom(game);
+            boolean extraTurn = child.play(pit);
+            int gain = child.stonesIn(depot) - game.stonesIn(depot);
+            int childValue = extraTurn ? gain + search(depth + 1, alpha - gain, beta - gain)
+                    : gain - search(depth + 1, gain - beta, gain - alpha);
+            if (aborted) return 0;
+            best = Math.max(best, childValue);
+            alpha = Math.max(alpha, childValue);
+            if (alpha >= beta) break;
+        }
+        return best;
+    }
+
+    private FastGame at(int depth) {
+        while (stack.size() <= depth) stack.add(new FastGame(layout, Integer.MAX_VALUE));
+        return stack.get(depth);
+    }
+}
@@ -0,0 +1,205 @@
+package at.magicbeansagent;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Exact values of all positions with at most maxStones stones in the pits, for one number of pits per player.
+ *
+ * The value of a position is the best difference between the stones the player to move and the opponent will
+ * still put into their depots, with both playing perfectly. It does not depend on the stones already in the depots,
+ * so one table serves every number of stones per slot. Since a depot holding more than half of all stones already
+ * decides the game, the POINTS_TO_WIN rule never changes the winner: the player to move wins iff own depot minus
+ * enemy depot plus value is positive.
+ *
+ * File format: magic, version, pits per player and maxStones as ints, followed by one signed byte per position.
+ * Positions are seen from the player to move (own pits first, then the enemy's pits) and ranked by their number of
+ * stones, then by the combinatorial number system. The file is memory-mapped, a lookup reads a single byte.
+ */
+public final class EndgameTablebase {
+    private static final int MAGIC = 0x4D425442;    // "MBTB"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final byte UNKNOWN = Byte.MIN_VALUE;
+
+    private final int n;
+    private final int maxStones;
+    // pits of both players
+    private final int m;
+    // binomial[x][k] = x choose k
+    private final long[][] binomial;
+    private final ByteBuffer buffer;
+
+    private EndgameTablebase(int n, int maxStones, ByteBuffer buffer) {
+        this.n = n;
+        this.maxStones = maxStones;
+        this.m = 2 * n;
+        this.binomial = new long[maxStones + m + 1][m + 1];
+        for (int x = 0; x < binomial.length; x++) {
+            binomial[x][0] = 1;
+            for (int k = 1; k <= Math.min(x, m); k++) {
+                binomial[x][k] = binomial[x - 1][k - 1] + (k < x ? binomial[x - 1][k] : 0);
+            }
+        }
+        this.buffer = buffer;
+    }
+
+    /**
+     * @return Number of positions with at most maxStones stones in 2n pits.
+     */
+    private static long positions(int n, int maxStones) {
+        return new EndgameTablebase(n, maxStones, null).binomial[maxStones + 2 * n][2 * n];
+    }
+
+    /**
+     * Maps a tablebase file.
+     * @param file: A file written by build().
+     * @return The tablebase.
+     * @throws IOException if the file cannot be read or is no tablebase.
+     */
+    public static EndgameTablebase open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (channel.size() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not a tablebase: " + file);
+            }
+            int n = buffer.getInt(8);
+            int maxStones = buffer.getInt(12);
+            if (channel.size() != HEADER_BYTES + positions(n, maxStones)) {
+                throw new IOException("Truncated tablebase: " + file);
+            }
+            return new EndgameTablebase(n, maxStones, buffer);
+        }
+    }
+
+    public int slots() {return n;}
+    public int maxStones() {return maxStones;}
+
+    /**
+     * @param game: A position with n pits per player and at most maxStones stones in the pits.
+     * @return Best difference of future depot stones for the player to move.
+     */
+    public int value(FastGame game) {
+        return buffer.get(HEADER_BYTES + index(game));
+    }
+
+    private int index(FastGame game) {
+        FastGame.Layout layout = game.getLayout();
+        int own = layout.firstPit(game.getCurrentPlayer());
+        int enemy = layout.firstPit(1 - game.getCurrentPlayer());
+        int stones = 0;
+        for (int i = 0; i < n; i++) stones += game.stonesIn(own + i) + game.stonesIn(enemy + i);
+
+        long rank = stones == 0 ? 0 : binomial[stones - 1 + m][m];
+        int remaining = stones;
+        for (int i = 0; i < m - 1 && remaining > 0; i++) {
+            int a = game.stonesIn(i < n ? own + i : enemy + i - n);
+            int k = m - i - 1;
+            rank += binomial[remaining + k][k] - binomial[remaining - a + k][k];
+            remaining -= a;
+        }
+        return (int) rank;
+    }
+
+
+    /// Building
+    /**
+     * Solves every position with at most maxStones stones, in order of increasing stone count: a move either puts
+     * stones into a depot, which leads to a solved position with fewer stones, or only moves stones towards the own
+     * depot, so the positions with the same stone count form no cycles and are solved by memoized recursion.
+     * @param n: Pits per player.
+     * @param maxStones: Maximum number of stones in the pits, at most 127.
+     * @param file: Output file.
+     * @throws IOException if the file cannot be written.
+     */
+    public static void build(int n, int maxStones, Path file) throws IOException {
+        long size = positions(n, maxStones);
+        if (maxStones > Byte.MAX_VALUE || size > Integer.MAX_VALUE - HEADER_BYTES) {
+            throw new IllegalArgumentException("Tablebase too large: " + size + " positions");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + (int) size);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(maxStones);
+        for (int i = HEADER_BYTES; i < buffer.capacity(); i++) buffer.put(i, UNKNOWN);
+
+        EndgameTablebase table = new EndgameTablebase(n, maxStones, buffer);
+        Builder builder = table.new Builder();
+        for (int stones = 0; stones <= maxStones; stones++) builder.solveAll(0, stones);
+
+        Files.write(file, buffer.array());
+    }
+
+    private final class Builder {
+        private final FastGame.Layout layout = FastGame.Layout.of(n);
+        private final int[] pits = new int[2 * n + 2];
+        private final List<FastGame> stack = new ArrayList<>();
+
+        // Enumerates the positions with the given number of stones, player 0 to move.
+        private void solveAll(int pit, int remaining) {
+            if (pit == m - 1) {
+                pits[layout.firstPit(1) + n - 1] = remaining;
+                at(0).load(pits, 0);
+                solve(0);
+                return;
+            }
+            int index = pit < n ? pit : layout.firstPit(1) + pit - n;
+            for (int a = 0; a <= remaining; a++) {
+                pits[index] = a;
+                solveAll(pit + 1, remaining - a);
+            }
+            pits[index] = 0;
+        }
+
+        private FastGame at(int depth) {
+            while (stack.size() <= depth) stack.add(new FastGame(layout, Integer.MAX_VALUE));
+            return stack.get(depth);
+        }
+
+        private int solve(int depth) {
+            FastGame game = at(depth);
+            int index = HEADER_BYTES + index(game);
+            byte known = buffer.get(index);
+            if (known != UNKNOWN) return known;
+
+            int value = EndgameSolver.terminalValue(game);
+            if (value == EndgameSolver.RUNNING) {
+                value = Integer.MIN_VALUE;
+                int player = game.getCurrentPlayer();
+                int depot = layout.depot(player);
+                FastGame child = at(depth + 1);
+                for (int pit = layout.firstPit(player); pit < depot; pit++) {
+                    if (game.stonesIn(pit) == 0) continue;
+                    child.copyFrom(game);
+                    boolean extraTurn = child.play(pit);
+                    int gain = child.stonesIn(depot) - game.stonesIn(depot);
+                    int childValue = solve(depth + 1);
+                    value = Math.max(value, extraTurn ? gain + childValue : gain - childValue);
+                }
+            }
+            buffer.put(index, (byte) value);
+            return value;
+        }
+    }
+
+    /**
+     * Writes a tablebase file.
+     * Usage: EndgameTablebase slotsPerPlayer maxStones file
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("Usage: EndgameTablebase <slots per player> <max stones> <file>");
+            System.exit(1);
+        }
+        int n = Integer.parseInt(args[0]);
+        int maxStones = Integer.parseInt(args[1]);
+        long start = System.nanoTime();
+        build(n, maxStones, Path.of(args[2]));
+        System.out.println(String.format("%d positions in %.1f s", positions(n, maxStones),
+                (System.nanoTime() - start) / 1e9));
+    }
+}
@@ -0,0 +1,288 @@
+package at.magicbeansagent;
+
+import at.pwd.boardgame.game.mancala.MancalaGame;
+
+import java.util.List;
+
+/**
+ * Primitive Mancala state used for playouts. The board is converted once from a MancalaGame and from then on
+ * sowing, captures, extra turns and the POINTS_TO_WIN rule run on an int[] without allocating.
+ *
+ * Pits are stored in sowing order: indices 0..n-1 are the pits of player 0, n is the depot of player 0,
+ * n+1..2n are the pits of player 1 and 2n+1 is the depot of player 1.
+ */
+public final class FastGame {
+    public static final int NONE = -1;
+    public static final int DRAW = 2;
+
+    private final Layout layout;
+    private final int[] pits;
+    private int currentPlayer;
+    private final int pointsToWin;
+
+    public FastGame(Layout layout, int pointsToWin) {
+        this.layout = layout;
+        this.pits = new int[layout.size];
+        this.pointsToWin = pointsToWin;
+    }
+
+    /**
+     * Maps the slot ids of a MancalaGame to pit indices and holds the sowing tables. Created once per board
+     * configuration.
+     *
+     * Sowing skips the enemy depot, so the stones of a pit run through a cycle of 2n+1 pits. For every pit and every
+     * remainder of the stone count modulo the cycle length, the tables hold the pits that receive a stone and the
+     * pit the last stone lands in, with flags for an extra turn and a possible capture.
+     */
+    public static final class Layout {
+        // Landing flags: the last stone ends in the own depot, or in an own pit.
+        static final int EXTRA_TURN = 1;
+        static final int OWN_PIT = 2;
+
+        // pits per player
+        final int n;
+        // pits + depots
+        final int size;
+        // pits reached by sowing, i.e. all but the enemy depot
+        final int cycle;
+        // slot id for every pit index
+        private final String[] ids;
+        // sowOrder[pit * cycle + k]: pit receiving the (k+1)^th stone sown from pit
+        private final int[] sowOrder;
+        // landingFlags[pit * cycle + k]: EXTRA_TURN and OWN_PIT of sowOrder[pit * cycle + k] for the player owning pit
+        private final byte[] landingFlags;
+
+        private Layout(int n, boolean clockwise) {
+            this.n = n;
+            this.size = 2 * n + 2;
+            this.cycle = size - 1;
+            this.ids = new String[size];
+            for (int i = 0; i < size; i++) {
+                int id = clockwise ? (i + 1) % size + 1 : size - i;
+                ids[i] = Integer.toString(id);
+            }
+
+            this.sowOrder = new int[size * cycle];
+            this.landingFlags = new byte[size * cycle];
+            for (int player = 0; player < 2; player++) {
+                for (int pit = firstPit(player); pit < depot(player); pit++) {
+                    int current = pit;
+                    for (int k = 0; k < cycle; k++) {
+                        do {
+                            if (++current == size) current = 0;
+                        } while (current == depot(1 - player));
+                        sowOrder[pit * cycle + k] = current;
+                        if (current == depot(player)) landingFlags[pit * cycle + k] = EXTRA_TURN;
+                        else if (ownedBy(current, player)) landingFlags[pit * cycle + k] = OWN_PIT;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Derives the layout from a game. The depot of player 1 is "1" and the depot of player 0 is "n+2"; the sowing
+         * direction follows from which side of the board the player to move may select from.
+         * @param game: A MancalaGame with at least one selectable slot.
+         * @return Layout matching the game's board.
+         */
+        public static Layout of(MancalaGame game) {
+            int n = Math.max(Integer.parseInt(game.getBoard().getDepotOfPlayer(0)),
+                    Integer.parseInt(game.getBoard().getDepotOfPlayer(1))) - 2;
+            List<String> selectable = game.getSelectableSlots();
+            boolean clockwise = true;
+            if (!selectable.isEmpty()) {
+                boolean upperRow = Integer.parseInt(selectable.get(0)) <= n + 1;
+                clockwise = upperRow == (game.getState().getCurrentPlayer() == 0);
+            }
+            return new Layout(n, clockwise);
+        }
+
+        /**
+         * Layout for offline tools that have no MancalaGame, using the clockwise slot ids.
+         * @param n: Pits per player.
+         */
+        public static Layout of(int n) {
+            return new Layout(n, true);
+        }
+
+        public boolean matches(Layout other) {
+            return other != null && n == other.n && ids[0].equals(other.ids[0]);
+        }
+
+        public int depot(int player) {return player == 0 ? n : size - 1;}
+        public int firstPit(int player) {return player == 0 ? 0 : n + 1;}
+        public int opposite(int pit) {return 2 * n - pit;}
+        public boolean ownedBy(int pit, int player) {return pit >= firstPit(player) && pit < depot(player);}
+        public String slotId(int pit) {return ids[pit];}
+
+        public int pitOf(String slotId) {
+            for (int i = 0; i < size; i++) {
+                if (ids[i].equals(slotId)) return i;
+            }
+            throw new IllegalArgumentException("Unknown slot id: " + slotId);
+        }
+    }
+
+    /// Conversion
+    /**
+     * Overwrites this state with the position of the given game.
+     * @param game: A MancalaGame with the same layout.
+     */
+    public void load(MancalaGame game) {
+        for (int i = 0; i < layout.size; i++) pits[i] = game.getState().stonesIn(layout.ids[i]);
+        currentPlayer = game.getState().getCurrentPlayer();
+    }
+
+    /**
+     * Overwrites this state with the given pits.
+     * @param values: Stones per pit index, including both depots.
+     * @param player: Player to move.
+     */
+    public void load(int[] values, int player) {
+        System.arraycopy(values, 0, pits, 0, layout.size);
+        currentPlayer = player;
+    }
+
+    public void copyFrom(FastGame other) {
+        System.arraycopy(other.pits, 0, pits, 0, layout.size);
+        currentPlayer = other.currentPlayer;
+    }
+
+    /**
+     * Cross-check helper: compares every pit with the given game.
+     * @param game: A MancalaGame with the same layout.
+     * @param comparePlayer: If true, the player to move has to match as well.
+     * @return True if both states hold the same position.
+     */
+    public boolean matches(MancalaGame game, boolean comparePlayer) {
+        for (int i = 0; i < layout.size; i++) {
+            if (pits[i] != game.getState().stonesIn(layout.ids[i])) return false;
+        }
+        return !comparePlayer || currentPlayer == game.getState().getCurrentPlayer();
+    }
+
+
+    /// Rules
+    /**
+     * Writes the pits the current player may select into out.
+     * @param out: Buffer with at least n entries.
+     * @return Number of legal moves.
+     */
+    public int legalMoves(int[] out) {
+        int count = 0;
+        int first = layout.firstPit(currentPlayer);
+        for (int pit = first; pit < first + layout.n; pit++) {
+            if (pits[pit] > 0) out[count++] = pit;
+        }
+        return count;
+    }
+
+    /**
+     * @return Bit i is set if the i^th pit of the current player is a legal move.
+     */
+    public int legalMask() {
+        int mask = 0;
+        int first = layout.firstPit(currentPlayer);
+        for (int i = 0; i < layout.n; i++) {
+            if (pits[first + i] > 0) mask |= 1 << i;
+        }
+        return mask;
+    }
+
+    /**
+     * Sows the stones of the given pit and applies captures. The player to move changes unless the last stone
+     * lands in the own depot. Full laps around the cycle are added to every pit at once, the remaining stones and
+     * the landing pit come from the layout's sowing tables.
+     * @param pit: A non-empty pit of the current player.
+     * @return True if the current player moves again, otherwise false.
+     */
+    public boolean play(int pit) {
+        int player = currentPlayer;
+        int cycle = layout.cycle;
+        int[] sowOrder = layout.sowOrder;
+
+        int stones = pits[pit];
+        pits[pit] = 0;
+        int laps = stones / cycle;
+        int rest = stones - laps * cycle;
+        if (laps > 0) {
+            for (int i = 0; i < layout.size; i++) pits[i] += laps;
+            pits[layout.depot(1 - player)] -= laps;
+        }
+        int base = pit * cycle;
+        for (int k = 0; k < rest; k++) pits[sowOrder[base + k]]++;
+
+        int last = base + (rest == 0 ? cycle - 1 : rest - 1);
+        int landing = layout.landingFlags[last];
+        if (landing == Layout.EXTRA_TURN) return true;
+
+        int current = sowOrder[last];
+        if (landing == Layout.OWN_PIT && pits[current] == 1) {
+            int opposite = layout.opposite(current);
+            if (pits[opposite] > 0) {
+                pits[layout.depot(player)] += pits[opposite] + 1;
+                pits[opposite] = 0;
+                pits[current] = 0;
+            }
+        }
+        currentPlayer = 1 - player;
+        return false;
+    }
+
+    /**
+     * Predicts from the sowing tables, without playing, whether play(pit) gives an extra turn.
+     * @param pit: A non-empty pit of the current player.
+     */
+    public boolean extraTurn(int pit) {
+        int k = (pits[pit] - 1) % layout.cycle;
+        return layout.landingFlags[pit * layout.cycle + k] == Layout.EXTRA_TURN;
+    }
+
+    /**
+     * Predicts from the sowing tables, without playing, how many stones play(pit) captures. The stones full laps add
+     * to the opposite pit are counted, the one stone a shorter sowing drops into it on its way around to the landing
+     * pit is not: such captures come out one stone short, or as none if the opposite pit was empty.
+     * @param pit: A non-empty pit of the current player.
+     * @return Stones moved into the own depot by the capture, 0 if there is none.
+     */
+    public int capture(int pit) {
+        int stones = pits[pit];
+        int laps = stones / layout.cycle;
+        int rest = stones - laps * layout.cycle;
+        int last = pit * layout.cycle + (rest == 0 ? layout.cycle - 1 : rest - 1);
+        if (layout.landingFlags[last] != Layout.OWN_PIT) return 0;
+        int current = layout.sowOrder[last];
+        int after = (current == pit ? 0 : pits[current]) + laps + (rest > 0 ? 1 : 0);
+        if (after != 1) return 0;
+        int opposite = pits[layout.opposite(current)] + laps;
+        return opposite > 0 ? opposite + 1 : 0;
+    }
+
+    /**
+     * Same game over conditions as MagicBeansAgent.getWinner(): one side is empty (remaining stones count for
+     * their owner), or a depot holds more than pointsToWin stones.
+     * @return Id of the winning player, DRAW, or NONE if the game is not over.
+     */
+    public int winner() {
+        int side0 = 0;
+        int side1 = 0;
+        for (int pit = 0; pit < layout.n; pit++) {
+            side0 += pits[pit];
+            side1 += pits[layout.n + 1 + pit];
+        }
+        int depot0 = pits[layout.depot(0)];
+        int depot1 = pits[layout.depot(1)];
+        if (side0 == 0 || side1 == 0) {
+            int total0 = depot0 + side0;
+            int total1 = depot1 + side1;
+            return total0 == total1 ? DRAW : (total0 > total1 ? 0 : 1);
+        }
+        if (depot0 > pointsToWin) return 0;
+        if (depot1 > pointsToWin) return 1;
+        return NONE;
+    }
+
+    public int getCurrentPlayer() {return currentPlayer;}
+    public int stonesIn(int pit) {return pits[pit];}
+    public Layout getLayout() {return layout;}
+}
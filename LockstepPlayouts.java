@@ -0,0 +1,380 @@
+package at.magicbeansagent;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Plays a batch of independent playouts in lockstep: every step advances all running playouts ("lanes") by one move.
+ * Boards are stored by pit, pits[pit * capacity + lane], and every lane holds its board as seen by its player to
+ * move, who always has the pits 0..n-1 and the depot n. A move then is the same arithmetic in every lane: sow,
+ * capture, check for the end of the game and swap the two halves of the board if the turn passes. Only the
+ * absolute player to move is kept per lane.
+ *
+ * This layout suits SIMD execution. step() is written as plain loops; VectorPlayouts (benchmarks module only)
+ * implements it with the incubating Vector API, which needs --add-modules jdk.incubator.vector. Both follow the RolloutPolicy, with a xorshift generator per lane instead of
+ * ThreadLocalRandom, and give the same playouts for the same seeds. Playouts do not probe the tablebase.
+ */
+public class LockstepPlayouts {
+    // Capacity is a multiple of this, the number of int lanes in the widest vectors (512 bit).
+    static final int LANE_MULTIPLE = 16;
+
+    final FastGame.Layout layout;
+    final int n;
+    final int size;
+    final int cycle;
+    final int pointsToWin;
+    final int capacity;
+
+    // Stones per pit and lane, relative to the lane's player to move: own pits 0..n-1, own depot n, enemy pits
+    // n+1..2n, enemy depot 2n+1.
+    final int[] pits;
+    // Absolute id of the player to move per lane.
+    final int[] mover;
+    // 1 while the lane's playout runs.
+    final int[] active;
+    // Winner id, FastGame.DRAW, or FastGame.NONE while running or after a cutoff.
+    final int[] winner;
+    // xorshift32 state per lane, never 0.
+    final int[] seeds;
+    // Absolute pit played by the last step, FastGame.NONE for lanes that did not move; for the cross-check.
+    final int[] move;
+    // 1 if the last step chose its move at random (policy random, or epsilon); for the cross-check.
+    final int[] explored;
+    int count = 0;
+
+    // Policy of the current run
+    boolean greedy;
+    // Probability of a random move as 16-bit threshold
+    int epsilonThreshold;
+
+    // Cross-check: every lane is replayed on a FastGame
+    private final FastGame[] replays;
+    private final FastGame scratch;
+    private final int[] values;
+    private final int[] moveBuffer;
+
+    /**
+     * @param layout: Board layout.
+     * @param pointsToWin: Half of all stones.
+     * @param lanes: Minimum number of playouts per batch.
+     * @param crossCheck: If true, replays every move on a FastGame and fails if the boards or results disagree.
+     */
+    public LockstepPlayouts(FastGame.Layout layout, int pointsToWin, int lanes, boolean crossCheck) {
+        this.layout = layout;
+        this.n = layout.n;
+        this.size = layout.size;
+        this.cycle = layout.cycle;
+        this.pointsToWin = pointsToWin;
+        this.capacity = Math.max(1, (lanes + LANE_MULTIPLE - 1) / LANE_MULTIPLE) * LANE_MULTIPLE;
+        this.pits = new int[size * capacity];
+        this.mover = new int[capacity];
+        this.active = new int[capacity];
+        this.winner = new int[capacity];
+        this.seeds = new int[capacity];
+        this.move = new int[capacity];
+        this.explored = new int[capacity];
+        this.replays = crossCheck ? new FastGame[capacity] : null;
+        if (crossCheck) {
+            for (int lane = 0; lane < capacity; lane++) replays[lane] = new FastGame(layout, pointsToWin);
+        }
+        this.scratch = new FastGame(layout, pointsToWin);
+        this.values = new int[size];
+        this.moveBuffer = new int[n];
+    }
+
+    public int capacity() {return capacity;}
+    public int count() {return count;}
+
+    /**
+     * Removes all playouts.
+     */
+    public void clear() {
+        count = 0;
+    }
+
+    /**
+     * Adds a playout.
+     * @param start: Start position, not over.
+     * @return Lane of the playout.
+     */
+    public int add(FastGame start) {
+        int lane = count++;
+        int player = start.getCurrentPlayer();
+        for (int pit = 0; pit < size; pit++) pits[pit * capacity + lane] = start.stonesIn(absolute(player, pit));
+        mover[lane] = player;
+        active[lane] = 1;
+        winner[lane] = FastGame.NONE;
+        if (replays != null) replays[lane].copyFrom(start);
+        return lane;
+    }
+
+    /**
+     * Plays all playouts until their game is over or the policy's depth is reached.
+     */
+    public void run(RolloutPolicy policy) {
+        run(policy, () -> true);
+    }
+
+    /**
+     * Same as run(RolloutPolicy), but stops once inTime returns false. It is asked before every step, and the
+     * playouts still running then are cut off as at the policy's depth.
+     */
+    public void run(RolloutPolicy policy, BooleanSupplier inTime) {
+        run(policy, ThreadLocalRandom.current().nextLong(), inTime);
+    }
+
+    /**
+     * Same as run(RolloutPolicy) with the given seed, so that backends can be compared playout by playout.
+     */
+    void run(RolloutPolicy policy, long seed) {
+        run(policy, seed, () -> true);
+    }
+
+    private void run(RolloutPolicy policy, long seed, BooleanSupplier inTime) {
+        greedy = policy.isGreedy();
+        epsilonThreshold = (int) Math.min(1 << 16, Math.round(policy.epsilon() * (1 << 16)));
+        for (int lane = 0; lane < capacity; lane++) {
+            // SplitMix64 finalizer of the lane's share of the seed
+            long z = seed + (lane + 1) * 0x9E3779B97F4A7C15L;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            z ^= z >>> 31;
+            seeds[lane] = (int) z == 0 ? 1 : (int) z;
+        }
+        // Unused lanes stay empty and inactive, so vector steps can run over whole vectors.
+        for (int lane = count; lane < capacity; lane++) {
+            for (int pit = 0; pit < size; pit++) pits[pit * capacity + lane] = 0;
+            active[lane] = 0;
+            winner[lane] = FastGame.NONE;
+        }
+        for (int lane = 0; lane < count; lane++) {
+            winner[lane] = unpack(lane, scratch).winner();
+            if (winner[lane] != FastGame.NONE) active[lane] = 0;
+        }
+
+        int movesLeft = policy.depth() > 0 ? policy.depth() : Integer.MAX_VALUE;
+        while (movesLeft-- > 0 && anyActive() && inTime.getAsBoolean()) {
+            step();
+            if (replays != null) crossCheck();
+        }
+    }
+
+    /**
+     * @return Winner id or FastGame.DRAW once the lane's game is over, FastGame.NONE if the playout was cut off.
+     */
+    public int winner(int lane) {return winner[lane];}
+
+    /**
+     * Writes the lane's current position to the given board, e.g. for the static evaluation of a cutoff.
+     * @return board
+     */
+    public FastGame unpack(int lane, FastGame board) {
+        int player = mover[lane];
+        for (int pit = 0; pit < size; pit++) values[absolute(player, pit)] = pits[pit * capacity + lane];
+        board.load(values, player);
+        return board;
+    }
+
+    /**
+     * @return Absolute index of the given pit index of player's relative board.
+     */
+    final int absolute(int player, int pit) {
+        return player == 0 ? pit : (pit + n + 1) % size;
+    }
+
+    private boolean anyActive() {
+        for (int lane = 0; lane < count; lane++) {
+            if (active[lane] != 0) return true;
+        }
+        return false;
+    }
+
+    static int xorshift(int x) {
+        x ^= x << 13;
+        x ^= x >>> 17;
+        return x ^ (x << 5);
+    }
+
+
+    /// Step
+    /**
+     * Plays one move in every active lane: two random numbers per lane, one for epsilon and one for the random move,
+     * then the policy's choice, sowing, capture, game end and the change of turn. Sets move and explored.
+     */
+    void step() {
+        for (int lane = 0; lane < count; lane++) {
+            if (active[lane] == 0) {
+                move[lane] = FastGame.NONE;
+                continue;
+            }
+            int seed = xorshift(seeds[lane]);
+            int epsilonDraw = seed >>> 16;
+            seed = xorshift(seed);
+            int moveDraw = seed >>> 16;
+            seeds[lane] = seed;
+
+            boolean explore = !greedy || epsilonDraw < epsilonThreshold;
+            int pit = explore ? FastGame.NONE : greedyPit(lane);
+            if (pit == FastGame.NONE) pit = randomPit(lane, moveDraw);
+            explored[lane] = explore ? 1 : 0;
+            move[lane] = absolute(mover[lane], pit);
+
+            boolean again = sow(lane, pit);
+            int result = result(lane);
+            if (result != FastGame.NONE) {
+                winner[lane] = result;
+                active[lane] = 0;
+            } else if (!again) {
+                for (int i = 0; i <= n; i++) {
+                    int own = pits[i * capacity + lane];
+                    pits[i * capacity + lane] = pits[(i + n + 1) * capacity + lane];
+                    pits[(i + n + 1) * capacity + lane] = own;
+                }
+                mover[lane] = 1 - mover[lane];
+            }
+        }
+    }
+
+    /**
+     * @param draw: 16-bit random number.
+     * @return The (draw * legal moves / 2^16)^th non-empty own pit.
+     */
+    private int randomPit(int lane, int draw) {
+        int legal = 0;
+        for (int i = 0; i < n; i++) {
+            if (pits[i * capacity + lane] > 0) legal++;
+        }
+        int k = (draw * legal) >>> 16;
+        for (int i = 0; i < n; i++) {
+            if (pits[i * capacity + lane] > 0 && k-- == 0) return i;
+        }
+        return FastGame.NONE;
+    }
+
+    /**
+     * Same choice as RolloutPolicy.greedyMove(), from the stone counts alone: the last stone of pit i lands
+     * (i + stones) mod cycle pits further, counting the own depot n but not the enemy depot.
+     */
+    private int greedyPit(int lane) {
+        int extraTurn = FastGame.NONE;
+        int bestCapture = FastGame.NONE;
+        int bestGain = 0;
+        for (int i = 0; i < n; i++) {
+            int stones = pits[i * capacity + lane];
+            if (stones == 0) continue;
+            int laps = stones / cycle;
+            int rest = stones - laps * cycle;
+            if (rest == n - i) {
+                extraTurn = i;
+                continue;
+            }
+            int last = rest == 0 ? i : i + rest;
+            if (last >= cycle) last -= cycle;
+            if (last >= n) continue;
+            int after = (last == i ? 0 : pits[last * capacity + lane]) + laps + (rest > 0 ? 1 : 0);
+            int opposite = pits[(2 * n - last) * capacity + lane] + laps;
+            int gain = after == 1 && opposite > 0 ? opposite + 1 : 0;
+            if (gain > bestGain) {
+                bestGain = gain;
+                bestCapture = i;
+            }
+        }
+        return extraTurn != FastGame.NONE ? extraTurn : bestCapture;
+    }
+
+    /**
+     * Sows the stones of the given own pit and applies a capture.
+     * @return True if the last stone landed in the own depot.
+     */
+    private boolean sow(int lane, int pit) {
+        int stones = pits[pit * capacity + lane];
+        pits[pit * capacity + lane] = 0;
+        int laps = stones / cycle;
+        int rest = stones - laps * cycle;
+        // Pit j receives a stone of the rest if it is at most rest pits after pit.
+        for (int j = 0; j < cycle; j++) {
+            int distance = j - pit - 1;
+            if (distance < 0) distance += cycle;
+            pits[j * capacity + lane] += laps + (distance < rest ? 1 : 0);
+        }
+        int last = rest == 0 ? pit : pit + rest;
+        if (last >= cycle) last -= cycle;
+        if (last == n) return true;
+        if (last < n && pits[last * capacity + lane] == 1 && pits[(2 * n - last) * capacity + lane] > 0) {
+            pits[n * capacity + lane] += pits[(2 * n - last) * capacity + lane] + 1;
+            pits[(2 * n - last) * capacity + lane] = 0;
+            pits[last * capacity + lane] = 0;
+        }
+        return false;
+    }
+
+    /**
+     * Same conditions as FastGame.winner().
+     * @return Absolute winner id, FastGame.DRAW, or FastGame.NONE if the lane's game is not over.
+     */
+    private int result(int lane) {
+        int ownSide = 0;
+        int enemySide = 0;
+        for (int i = 0; i < n; i++) {
+            ownSide += pits[i * capacity + lane];
+            enemySide += pits[(n + 1 + i) * capacity + lane];
+        }
+        int ownDepot = pits[n * capacity + lane];
+        int enemyDepot = pits[(2 * n + 1) * capacity + lane];
+        int relative;
+        if (ownSide == 0 || enemySide == 0) {
+            int own = ownDepot + ownSide;
+            int enemy = enemyDepot + enemySide;
+            if (own == enemy) return FastGame.DRAW;
+            relative = own > enemy ? 0 : 1;
+        } else if (ownDepot > pointsToWin) {
+            relative = 0;
+        } else if (enemyDepot > pointsToWin) {
+            relative = 1;
+        } else {
+            return FastGame.NONE;
+        }
+        return relative == 0 ? mover[lane] : 1 - mover[lane];
+    }
+
+
+    /// Cross-check
+    /**
+     * Replays the last step on the FastGame of every lane that moved: the move has to be legal, the greedy choice
+     * has to match RolloutPolicy.greedyMove(), and board, player to move and result have to agree.
+     */
+    private void crossCheck() {
+        for (int lane = 0; lane < count; lane++) {
+            int pit = move[lane];
+            if (pit == FastGame.NONE) continue;
+            FastGame replay = replays[lane];
+            int legal = replay.legalMoves(moveBuffer);
+            boolean found = false;
+            for (int i = 0; i < legal; i++) found |= moveBuffer[i] == pit;
+            if (!found) throw new IllegalStateException("Cross-check: lane " + lane + " played illegal pit " + pit);
+            if (greedy && explored[lane] == 0) {
+                int expected = RolloutPolicy.greedyMove(replay, moveBuffer, legal);
+                if (expected != FastGame.NONE && expected != pit) {
+                    throw new IllegalStateException("Cross-check: lane " + lane + " played pit " + pit
+                            + ", greedy move is " + expected);
+                }
+            }
+            replay.play(pit);
+            unpack(lane, scratch);
+            for (int i = 0; i < size; i++) {
+                if (scratch.stonesIn(i) != replay.stonesIn(i)) {
+                    throw new IllegalStateException("Cross-check: lane " + lane + " differs at pit " + i
+                            + " after pit " + pit);
+                }
+            }
+            int expectedWinner = replay.winner();
+            if (scratch.getCurrentPlayer() != replay.getCurrentPlayer() && expectedWinner == FastGame.NONE) {
+                throw new IllegalStateException("Cross-check: lane " + lane + " has the wrong player after pit " + pit);
+            }
+            if (winner[lane] != expectedWinner) {
+                throw new IllegalStateException("Cross-check: lane " + lane + " winner " + winner[lane]
+                        + ", expected " + expectedWinner);
+            }
+        }
+    }
+}
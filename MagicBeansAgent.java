@@ -5,339 +5,1318 @@ import at.pwd.boardgame.game.mancala.agent.MancalaAgent;
 import at.pwd.boardgame.game.mancala.agent.MancalaAgentAction;
 import at.pwd.boardgame.game.base.WinState;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Random;
-
-public class MagicBeansAgent implements MancalaAgent {
-    private final Random random = new Random();
-
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BooleanSupplier;
+
+public class MagicBeansAgent implements MancalaAgent, AutoCloseable {
     private int MY_ID;
-    private long STARTTIME = 0;
     private long COMPUTATIONTIME = 0;
     private int NUM_SLOTS;
     private int POINTS_TO_WIN;
 
     private final double DEFAULT_C = Math.sqrt(2.);
 
-    private Node LAST_WINNER = null;
+    // Verifies every playout move against MancalaGame. Slow, for debugging only.
+    private static final boolean CROSS_CHECK = Boolean.getBoolean("magicbeans.crosscheck");
+
+    // Number of threads searching the same tree. With 1, the search runs in the calling thread only.
+    private static final int THREADS = Math.max(1, Integer.getInteger("magicbeans.threads", 1));
+    private ExecutorService searchPool = null;
+
+    // Leaf parallelism: with ROLLOUTS > 1, every expanded candidate gets ROLLOUTS playouts, run on ROLLOUT_THREADS
+    // threads of a fork-join pool and backpropagated as one aggregated result.
+    private static final int ROLLOUTS = Math.max(1, Integer.getInteger("magicbeans.rollouts", 1));
+    private static final int ROLLOUT_THREADS = Math.max(1, Integer.getInteger("magicbeans.rollout.threads",
+            Runtime.getRuntime().availableProcessors()));
+    private ForkJoinPool rolloutPool = null;
+    // Backend of the batched playouts: "board" plays them one by one on the rollout pool, "lockstep" advances all
+    // playouts of a batch together in the worker's thread, see LockstepPlayouts.
+    private static final String ROLLOUT_BACKEND = System.getProperty("magicbeans.rollout.backend", "board");
+    private static final boolean LOCKSTEP = !ROLLOUT_BACKEND.equals("board");
+
+    // Move choice and depth cutoff of the playouts, see RolloutPolicy.
+    private RolloutPolicy rolloutPolicy = RolloutPolicy.fromProperties();
+
+    // RAVE: with RAVE_K > 0, the tree also keeps all-moves-as-first statistics, and scores blend a child's own
+    // value with its AMAF value. The AMAF weight is sqrt(RAVE_K / (3 * visits + RAVE_K)), i.e. half at RAVE_K visits.
+    private static final double RAVE_K = Double.parseDouble(System.getProperty("magicbeans.rave", "0"));
+
+    // Keeps searching below the chosen move while the opponent is thinking, stopped by the next doTurn().
+    private static final boolean PONDER = Boolean.getBoolean("magicbeans.ponder");
+    private ExecutorService ponderPool = null;
+    private final List<Future<?>> ponderTasks = new ArrayList<>();
+    private volatile boolean stopPondering = false;
+    private long ponderDeadlineNanos = 0;
+
+    // Playout board layout, rebuilt only when the board configuration changes.
+    private FastGame.Layout layout = null;
+    // Playout value of a draw, wins count 1 and losses 0
+    private static final double DRAW_VALUE = 0.5;
+
+    // Search tree, preallocated once and reused across turns. A heap budget in MB, if given, sets the capacity.
+    private static final long POOL_MB = Long.getLong("magicbeans.pool.mb", 0);
+    private static final int POOL_NODES = POOL_MB > 0 ? NodePool.capacityFor(POOL_MB << 20, 1.5, RAVE_K > 0)
+            : Integer.getInteger("magicbeans.pool.nodes", 1 << 20);
+    private NodePool pool = null;
+    // Once more than PRUNE_AT of the pool is in use, the search pauses and collapses subtrees down to half of it.
+    private static final double PRUNE_AT = Double.parseDouble(System.getProperty("magicbeans.pool.prune", "0.9"));
+    private volatile boolean pruneRequested = false;
+    private int prunedNodes = 0;
+    // Root of the last search, moved by pruning.
+    private int searchRoot = NodePool.NONE;
+
+    // Transposition table: positions reached by different move orders share one node, turning the tree into a DAG.
+    private static final int TABLE_ENTRIES = Integer.getInteger("magicbeans.tt.entries", 1 << 20);
+    private Zobrist zobrist = null;
+    private TranspositionTable table = null;
+    private int tablePlayer = -1;
+
+    // Endgame: positions with at most ENDGAME_STONES stones in the pits are solved by alpha-beta search, positions
+    // within the tablebase are looked up. Solved positions become proven game over nodes, playouts end once they reach
+    // the tablebase. A root that is lost with perfect play is searched without solving (swindling), for the move that
+    // leaves the opponent the most chances to go wrong.
+    private static final int ENDGAME_STONES = Integer.getInteger("magicbeans.endgame.stones", 12);
+    private static final int ENDGAME_NODES = Integer.getInteger("magicbeans.endgame.nodes", 20000);
+    private static final String ENDGAME_TABLEBASE = System.getProperty("magicbeans.endgame.tablebase");
+    private EndgameTablebase tablebase = null;
+    private EndgameSolver endgame = null;
+    private boolean swindling = false;
+    // Hashes of positions whose search gave up, by the low bits of the hash, so that they are not searched again when
+    // their node is recreated. Shared by the workers without synchronization: a lost entry only costs a search.
+    private static final int UNSOLVED_ENTRIES = 1 << 12;
+    private final long[] unsolved = new long[UNSOLVED_ENTRIES];
+
+    // Opening book: book positions are played without searching, and tree nodes of book positions start with the
+    // book statistics, scaled down to at most BOOK_PRIOR_VISITS visits.
+    private static final String BOOK = System.getProperty("magicbeans.book");
+    private static final int BOOK_PRIOR_VISITS = Integer.getInteger("magicbeans.book.prior", 100);
+    private OpeningBook book = null;
+    private boolean bookLoaded = false;
+
+    // Tree snapshot: the SNAPSHOT_ENTRIES most visited positions of earlier runs, written when the JVM exits and
+    // mapped on the first turn. Tree nodes of snapshot positions that are not in the book start with the snapshot
+    // statistics, scaled like book priors.
+    private static final String SNAPSHOT = System.getProperty("magicbeans.snapshot");
+    private static final int SNAPSHOT_ENTRIES = Integer.getInteger("magicbeans.snapshot.entries", 1 << 16);
+    private OpeningBook snapshot = null;
+    private boolean snapshotLoaded = false;
+    // Agent whose tree is written when the JVM exits: the last one that played a turn and has not saved since. A
+    // single hook for all agents, so match runners that create one agent per game do not keep every tree alive.
+    private static MagicBeansAgent snapshotOnExit = null;
+    private static boolean snapshotHookAdded = false;
+    // Held by doTurn() and saveSnapshot(), so a snapshot is not written while a search changes the tree.
+    private final Object turnLock = new Object();
+
+    // Per-turn metrics, printed with magicbeans.metrics and exported as JFR event while a recording is running.
+    private static final boolean PRINT_METRICS = Boolean.getBoolean("magicbeans.metrics");
+    private SearchListener searchListener = null;
+    private TurnMetrics lastMetrics = null;
+    private boolean metricsEnabled = false;
+
+    // Turn clock. A turn aims for TIME_TARGET of the time left after the safety margin, stops early once the move is
+    // decided and uses the rest for critical positions. The margin is calibrated from the measured tail latency.
+    private static final long TIME_MARGIN_MS = Long.getLong("magicbeans.time.margin", 600);
+    private static final long TIME_MIN_MARGIN_MS = Long.getLong("magicbeans.time.minmargin", 200);
+    private static final double TIME_TARGET = Double.parseDouble(System.getProperty("magicbeans.time.target", "0.8"));
+    private final TimeManager time = new TimeManager(TIME_MARGIN_MS, TIME_MIN_MARGIN_MS, TIME_TARGET);
+    // Decided: the most visited root child has at least this share of the visits, after a quarter of the target.
+    private static final double DOMINANCE = 0.9;
+    // Critical: the two most visited root children are closer than this share of the visits.
+    private static final double CRITICAL_GAP = 0.1;
+    // Iterations of the coordinating worker between two time decisions
+    private static final int TIME_CHECK_INTERVAL = 64;
+    private int turnRootVisits = 0;
+    // Root visits after which a turn stops regardless of its time, 0 for none. Set by match runners so that the
+    // search effort per move does not depend on the load of the machine.
+    private long playoutBudget = 0;
+
+    // Position of the current turn's root
+    private FastGame rootGame = null;
+    private MancalaGame rootMancalaGame = null;
 
 
     /**
-     * A node in the search tree. Each Node has a list of children.
-     * A node represents one possible play and stores various information for that play.
+     * Main MCTS based routine for a single turn of a Mancala game.
+     * @param computationTime max computation time available.
+     * @param mancalaGame a game state.
+     * @return the children node from root with the highest score, i.e. best move found.
      */
-    private class Node {
+    @Override
+    public MancalaAgentAction doTurn(int computationTime, MancalaGame mancalaGame) {
+        synchronized (turnLock) {
+            return playTurn(computationTime, mancalaGame);
+        }
+    }
+
+    private MancalaAgentAction playTurn(int computationTime, MancalaGame mancalaGame) {
+        stopPondering();
+        prepareTurn(computationTime, mancalaGame);
+
+        if (mancalaGame.getSelectableSlots().size() == 1){
+            System.out.println("Playing only available slot.\n");
+            return new MancalaAgentAction(mancalaGame.getSelectableSlots().get(0));
+        }
+
+        FastGame game = new FastGame(layout, POINTS_TO_WIN);
+        game.load(mancalaGame);
+        swindling = false;
+        int solved = endgame == null ? FastGame.NONE : endgame.solve(game);
+        if (solved == 1 - MY_ID) {
+            // The tree holds the proofs of the loss, which would leave nothing to search.
+            swindling = true;
+            clearTree();
+        } else if (solved != FastGame.NONE) {
+            int pit = endgame.bestMove(game);
+            if (pit != FastGame.NONE) {
+                System.out.println("Playing solved endgame move.\n");
+                return new MancalaAgentAction(layout.slotId(pit));
+            }
+        }
+        int bookEntry = book == null ? OpeningBook.NONE : book.find(zobrist.hash(game));
+        if (bookEntry != OpeningBook.NONE && book.move(bookEntry) != OpeningBook.NONE) {
+            System.out.println("Playing book move.\n");
+            return new MancalaAgentAction(layout.slotId(layout.firstPit(MY_ID) + book.move(bookEntry)));
+        }
 
-        private final MancalaGame game;
-        private final WinState winState;
+        int root = findRoot(mancalaGame);
 
-        private Node parent;
-        private final LinkedList<Node> children = new LinkedList<>();
+        if (gameOver(root)){   // Just for quality of life.
+            System.out.println("Game is over, playing first slot\n");
+            return new MancalaAgentAction(mancalaGame.getSelectableSlots().get(0));
+        }
 
-        // 0 <= visitCount
-        private int visitCount;
-        // 0 <= winCount
-        private int winCount;
-        // this node's unique move
-        private String slot;
+        int winner = search(root);
 
+        if (PONDER) startPondering(winner, mancalaGame);
 
-        /// Tree trimming booleans
-        // True if game is over or (all possible moves are expanded and all children are explored)
-        private boolean explored = false;
-        // True if node is enemy's move. Boolean for convenience.
-        private final boolean isEnemyMove;
-        // True if node is enemy's move and [game is over && enemy wins) || (any child isEnemyWin)]
-        private boolean isEnemyWin = false;
-        // True if my move and any child isEnemyWin
-        private boolean tabu = false;
+        time.finish();
+        return new MancalaAgentAction(layout.slotId(pool.move(winner)));
+    }
 
-        //
-        public Node(MancalaGame game) {
-            this.game = game;
-            this.winState = getWinner(game);
-            this.isEnemyMove = game.getState().getCurrentPlayer() != MY_ID;
+    /**
+     * Runs the workers on the given root until the deadline and picks the move.
+     * @param root: Root of this turn's search.
+     * @return Edge of the best move.
+     */
+    int search(int root) {
+        prunedNodes = 0;
+        pruneRequested = false;     // possibly left over from pondering
+        if (pool.usageAbove(PRUNE_AT)) root = prune(root);
+        int nodesBefore = pool.nodeCount();
+        int rootVisits = pool.visits(root);
+        // Without a compaction the pool still holds nodes of earlier turns that the root does not reach.
+        int reusedNodes = metricsEnabled && rootVisits > 0 ? pool.reachable(root) : 0;
+        turnRootVisits = rootVisits;
+        long searchStart = System.nanoTime();
+
+        Worker[] workers = new Worker[THREADS];
+        for (int i = 0; i < THREADS; i++) workers[i] = new Worker(root);
+        workers[0].coordinator = true;
+        runWorkers(workers);
+        // The workers pause when the pool runs full: collapse subtrees and continue on the smaller tree.
+        while (pruneRequested && time.inTime()) {
+            root = prune(root);
+            for (Worker worker : workers) worker.root = root;
+            runWorkers(workers);
         }
+        searchRoot = root;
 
-        /**
-         * @return True if the node can have more children, otherwise false.
-         */
-        public boolean expandable() {
-            return this.children.size() < game.getSelectableSlots().size();
+        int winner = getChildWithBestScore(root, DEFAULT_C, false, false, true);
+        if (workers[0].timed) reportMetrics(workers, nodesBefore, reusedNodes, rootVisits,
+                System.nanoTime() - searchStart);
+        return winner;
+    }
+
+    /**
+     * Collapses subtrees to free half of the pool. No worker may run.
+     * @return New index of root.
+     */
+    private int prune(int root) {
+        int nodesBefore = pool.nodeCount();
+        root = pool.prune(root, PRUNE_AT / 2, table);
+        prunedNodes += nodesBefore - pool.nodeCount();
+        pruneRequested = false;
+        return root;
+    }
+
+    /**
+     * Reads the game configuration, starts the clock and (re)creates pool, Zobrist keys and transposition table
+     * when needed. Package-private for the benchmarks.
+     * @param computationTime max computation time available.
+     * @param mancalaGame a game state.
+     */
+    void prepareTurn(int computationTime, MancalaGame mancalaGame) {
+        int slots = Math.max(Integer.parseInt(mancalaGame.getBoard().getDepotOfPlayer(0)),
+                Integer.parseInt(mancalaGame.getBoard().getDepotOfPlayer(1))) - 2;
+        prepareTurn(computationTime, FastGame.Layout.of(mancalaGame),
+                mancalaGame.getBoard().getStonesPerSlot() * slots, mancalaGame.getState().getCurrentPlayer());
+    }
+
+    /**
+     * Same as prepareTurn(int, MancalaGame) without a MancalaGame, for the opening book builder.
+     * @param computationTime max computation time available.
+     * @param currentLayout: Board layout.
+     * @param pointsToWin: Half of all stones.
+     * @param player: Player to move.
+     */
+    void prepareTurn(int computationTime, FastGame.Layout currentLayout, int pointsToWin, int player) {
+        this.MY_ID = player;
+        this.NUM_SLOTS = currentLayout.n;
+        this.POINTS_TO_WIN = pointsToWin;
+        this.COMPUTATIONTIME = computationTime;
+        // Before the clock starts: the first check loads the JFR classes, which takes a few hundred ms.
+        metricsEnabled = searchListener != null || PRINT_METRICS || TurnEvent.enabled();
+        time.start(computationTime * 1000L);
+
+        if (!currentLayout.matches(layout)) {
+            layout = currentLayout;
+            tablebase = loadTablebase(layout);
+        }
+        if (pool == null) {
+            pool = new NodePool(POOL_NODES, (int) Math.min(Integer.MAX_VALUE - 8, POOL_NODES * 3L / 2), RAVE_K > 0);
+            System.out.println(String.format("Node pool: %d nodes, %.1f bytes/node + %d bytes/table entry",
+                    pool.capacity(), pool.bytesPerNode(), TranspositionTable.bytesPerEntry()));
+        }
+        int totalStones = 2 * POINTS_TO_WIN;
+        if (zobrist == null || !zobrist.matches(layout, totalStones) || tablePlayer != MY_ID) {
+            // Node statistics are kept from MY_ID's perspective, so they cannot be reused for the other player.
+            zobrist = new Zobrist(layout, totalStones);
+            table = new TranspositionTable(TABLE_ENTRIES, pool::visits);
+            tablePlayer = MY_ID;
+            pool.clear();
+            endgame = newEndgameSolver();
+            Arrays.fill(unsolved, 0);
+        }
+        if (!bookLoaded) {
+            book = loadBook();
+            bookLoaded = true;
         }
+        if (book != null && (book.slots() != NUM_SLOTS || book.stonesPerSlot() * NUM_SLOTS != POINTS_TO_WIN)) {
+            book = null;
+        }
+        if (!snapshotLoaded && SNAPSHOT != null) snapshot = loadSnapshot(Path.of(SNAPSHOT));
+        snapshotLoaded = true;
+        if (SNAPSHOT != null) saveSnapshotOnExit(this);
+        // A snapshot of another board configuration is replaced by the next saveSnapshot().
+        if (snapshot != null && (snapshot.slots() != NUM_SLOTS
+                || snapshot.stonesPerSlot() * NUM_SLOTS != POINTS_TO_WIN)) {
+            snapshot = null;
+        }
+    }
 
-        /**
-         * Adds a child to the node.
-         * @param k: Child represents the k^th available move.
-         * @return The child that was added.
-         */
-        public Node addChild(int k) {
-            assert expandable() : "Can't add child: Node not expandable";
-            assert k >= 0 : "Can't add child: k must be positive integer.";
+    /**
+     * @return The opening book given by magicbeans.book, or null.
+     */
+    private static OpeningBook loadBook() {
+        if (BOOK == null) return null;
+        try {
+            return OpeningBook.open(Path.of(BOOK));
+        } catch (IOException e) {
+            System.out.println("Cannot open opening book: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Maps a snapshot file. Only the header is read, entries are paged in by the lookups.
+     * @return The snapshot, or null if there is none yet or it cannot be read.
+     */
+    private static OpeningBook loadSnapshot(Path file) {
+        if (!Files.exists(file)) return null;
+        try {
+            return OpeningBook.open(file);
+        } catch (IOException e) {
+            System.out.println("Cannot open tree snapshot: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Writes the SNAPSHOT_ENTRIES most visited positions of the tree and of the loaded snapshot, in the opening book
+     * format without moves. Tree statistics replace the snapshot's for positions in both: their priors already carry
+     * the snapshot's win rate. Afterwards the new file serves as snapshot. Call it between turns, e.g. after a
+     * match; it waits for a running doTurn(). With magicbeans.snapshot, it runs when the JVM exits for the last agent
+     * that played a turn since the last call.
+     * @param file: Output file, replaced atomically.
+     * @throws IOException if the file cannot be written.
+     */
+    public void saveSnapshot(Path file) throws IOException {
+        synchronized (turnLock) {
+            writeSnapshot(file);
+        }
+        synchronized (MagicBeansAgent.class) {
+            if (snapshotOnExit == this) snapshotOnExit = null;
+        }
+    }
+
+    private void writeSnapshot(Path file) throws IOException {
+        if (pool == null) return;
+        stopPondering();
+        Map<Long, long[]> entries = new HashMap<>();   // hash -> {visits, wins of player 0, move}
+        for (int entry = 0; snapshot != null && entry < snapshot.capacity(); entry++) {
+            int visits = snapshot.visits(entry);
+            if (visits == 0) continue;
+            entries.put(snapshot.hash(entry), new long[] {visits, snapshot.wins(entry, 0), OpeningBook.NONE});
+        }
+        // Most visited nodes first: visit count in the high half, node in the low half.
+        long[] order = new long[pool.nodeCount()];
+        int count = 0;
+        for (int node = 0; node < pool.nodeCount(); node++) {
+            if (pool.visits(node) > 0) order[count++] = (long) pool.visits(node) << 32 | node;
+        }
+        Arrays.sort(order, 0, count);
+        // Several nodes can hold the same position (table evictions, stale nodes): the most visited one counts.
+        Map<Long, long[]> tree = new HashMap<>();
+        for (int i = count - 1; i >= 0 && tree.size() < SNAPSHOT_ENTRIES; i--) {
+            int node = (int) order[i];
+            tree.putIfAbsent(pool.hash(node),
+                    OpeningBook.toEntry(pool.visits(node), pool.wins(node), MY_ID, OpeningBook.NONE));
+        }
+        entries.putAll(tree);
+
+        Map<Long, long[]> kept = new LinkedHashMap<>();
+        entries.entrySet().stream()
+                .sorted(Comparator.comparingLong((Map.Entry<Long, long[]> entry) -> entry.getValue()[0]).reversed())
+                .limit(SNAPSHOT_ENTRIES)
+                .forEach(entry -> kept.put(entry.getKey(), entry.getValue()));
+        OpeningBook.write(NUM_SLOTS, POINTS_TO_WIN / NUM_SLOTS, kept, file);
+        snapshot = OpeningBook.open(file);
+    }
+
+    /**
+     * Makes agent the one whose tree is written to SNAPSHOT when the JVM exits, and adds the hook on the first call.
+     */
+    private static synchronized void saveSnapshotOnExit(MagicBeansAgent agent) {
+        snapshotOnExit = agent;
+        if (snapshotHookAdded) return;
+        snapshotHookAdded = true;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            MagicBeansAgent last;
+            synchronized (MagicBeansAgent.class) {
+                last = snapshotOnExit;
+            }
+            if (last == null) return;
+            try {
+                last.saveSnapshot(Path.of(SNAPSHOT));
+            } catch (IOException e) {
+                System.out.println("Cannot write tree snapshot: " + e.getMessage());
+            }
+        }));
+    }
+
+    /**
+     * @return The tablebase given by magicbeans.endgame.tablebase if it matches the layout, otherwise null.
+     */
+    private static EndgameTablebase loadTablebase(FastGame.Layout layout) {
+        if (ENDGAME_TABLEBASE == null) return null;
+        try {
+            EndgameTablebase loaded = EndgameTablebase.open(Path.of(ENDGAME_TABLEBASE));
+            if (loaded.slots() == layout.n) return loaded;
+            System.out.println("Ignoring tablebase for " + loaded.slots() + " slots per player.");
+        } catch (IOException e) {
+            System.out.println("Cannot open tablebase: " + e.getMessage());
+        }
+        return null;
+    }
+
+    private EndgameSolver newEndgameSolver() {
+        if (ENDGAME_STONES <= 0 && tablebase == null) return null;
+        return new EndgameSolver(layout, 2 * POINTS_TO_WIN, ENDGAME_STONES, ENDGAME_NODES, tablebase);
+    }
+
+    /**
+     * Looks up the current game in the transposition table and uses its node as root. Creates the root if the
+     * position is unknown. Package-private for the benchmarks.
+     * @param mancalaGame a game state.
+     * @return Root node of this turn's search.
+     */
+    int findRoot(MancalaGame mancalaGame) {
+        FastGame game = new FastGame(layout, POINTS_TO_WIN);
+        game.load(mancalaGame);
+        int root = findRoot(game);
+        rootMancalaGame = mancalaGame;
+        return root;
+    }
+
+    /**
+     * Same as findRoot(MancalaGame) without a MancalaGame, for the opening book builder.
+     * @param game: Position of the root, not copied.
+     * @return Root node of this turn's search.
+     */
+    int findRoot(FastGame game) {
+        rootMancalaGame = null;
+        rootGame = game;
+        long rootHash = zobrist.hash(rootGame);
+        int root = table.get(rootHash);
+        if (pool.usageAbove(0.5) && root != NodePool.NONE) {
+            // Free everything that is not below the new root.
+            root = pool.compact(root, table);
+        } else if (pool.usageAbove(0.5)) {
+            pool.clear();
+            table.clear();
+        }
+        if (root == NodePool.NONE) root = newNode(rootGame, rootHash, null);
+        return root;
+    }
+
+    /**
+     * @param listener: Receives the metrics of every searched turn, or null to remove the listener.
+     */
+    public void setSearchListener(SearchListener listener) {
+        this.searchListener = listener;
+    }
+
+    /**
+     * @return Metrics of the last searched turn, or null if metrics are disabled.
+     */
+    public TurnMetrics getLastMetrics() {return lastMetrics;}
+
+    private void reportMetrics(Worker[] workers, int nodesBefore, int reusedNodes, int rootVisits,
+                               long searchNanos) {
+        long iterations = 0;
+        long playouts = 0;
+        long depthSum = 0;
+        int maxDepth = 0;
+        long[] phaseNanos = new long[TurnMetrics.PHASES];
+        for (Worker worker : workers) {
+            iterations += worker.iterations;
+            playouts += worker.playouts;
+            depthSum += worker.depthSum;
+            maxDepth = Math.max(maxDepth, worker.maxDepth);
+            for (int phase = 0; phase < TurnMetrics.PHASES; phase++) phaseNanos[phase] += worker.phaseNanos[phase];
+        }
+        lastMetrics = new TurnMetrics(iterations, playouts, searchNanos, pool.nodeCount() - nodesBefore + prunedNodes,
+                reusedNodes, prunedNodes, rootVisits, maxDepth, depthSum, phaseNanos,
+                time.elapsedMillis(), COMPUTATIONTIME * 1000, time.marginMillis());
+
+        if (PRINT_METRICS) System.out.println("Turn: " + lastMetrics);
+        TurnEvent.commit(lastMetrics);
+        SearchListener listener = searchListener;
+        if (listener != null) listener.turnFinished(lastMetrics);
+    }
+
+    // Package-private for the benchmarks.
+    NodePool getPool() {return pool;}
+    int getSearchRoot() {return searchRoot;}
+    void clearTree() {
+        if (pool == null) return;
+        stopPondering();
+        pool.clear();
+        table.clear();
+    }
+
+
+    /// Tree
+    /**
+     * Allocates a node for the given position and registers it in the transposition table.
+     * If another worker registered the same position first, that node is returned instead.
+     * @param game: Position of the node.
+     * @param hash: Zobrist hash of game.
+     * @param solver: Solver for endgame positions, skipped for those it gave up on before, or null.
+     * @return Node index, or NodePool.NONE if the pool is full.
+     */
+    private int newNode(FastGame game, long hash, EndgameSolver solver) {
+        int winner = game.winner();
+        int slot = (int) hash & (UNSOLVED_ENTRIES - 1);
+        if (winner == FastGame.NONE && solver != null && unsolved[slot] != hash) {
+            winner = solver.solve(game);
+            if (solver.gaveUp()) unsolved[slot] = hash;
+        }
+        byte flags = 0;
+        if (game.getCurrentPlayer() != MY_ID) flags |= NodePool.ENEMY_MOVE;
+        if (winner == 0 || winner == 1) flags |= NodePool.GAME_OVER;
+        if (winner == MY_ID) flags |= NodePool.PROVEN_WIN;
+        if (winner == 1 - MY_ID) flags |= NodePool.PROVEN_LOSS;
+        if (winner != FastGame.NONE) flags |= NodePool.PROVEN;
+        int node = pool.allocate(hash, winner == FastGame.NONE ? game.legalMask() : 0, flags);
+        if (node == NodePool.NONE) return NodePool.NONE;
+        int registered = table.putIfAbsent(hash, node);
+        // Only the registered node gets the prior, not one that lost the race and stays orphaned.
+        if (registered == node && !addPrior(node, hash, book)) addPrior(node, hash, snapshot);
+        return registered;
+    }
+
+    /**
+     * Starts a new node with the statistics of its position in a book or snapshot, scaled down to at most
+     * BOOK_PRIOR_VISITS visits.
+     * @param source: Book or snapshot, or null.
+     * @return True if the position was found.
+     */
+    private boolean addPrior(int node, long hash, OpeningBook source) {
+        int entry = source == null ? OpeningBook.NONE : source.find(hash);
+        if (entry == OpeningBook.NONE) return false;
+        int visits = source.visits(entry);
+        int priorVisits = Math.min(visits, BOOK_PRIOR_VISITS);
+        pool.addVisits(node, priorVisits);
+        pool.addWins(node, (double) source.wins(entry, MY_ID) * priorVisits / visits);
+        return true;
+    }
 
-            List<String> possibleSlots = game.getSelectableSlots();
-            for (Node child :children) {
-                possibleSlots.remove(child.slot);
+    /**
+     * Adds a child to the node. If the resulting position is already in the transposition table, that node is
+     * shared instead of creating a new one.
+     * @param node: Node to expand, its position is worker.game.
+     * @param k: Child represents the k^th available move.
+     * @param worker: Worker holding the position of node.
+     * @return The edge that was added, or NodePool.NONE if the node is fully expanded or the pool is full.
+     */
+    int addChild(int node, int k, Worker worker) {
+        assert k >= 0 : "Can't add child: k must be positive integer.";
+
+        int offset = pool.claimMove(node, k);
+        if (offset == NodePool.NONE) return NodePool.NONE;
+        int pit = layout.firstPit(worker.game.getCurrentPlayer()) + offset;
+
+        FastGame childGame = worker.childGame;
+        childGame.copyFrom(worker.game);
+        childGame.play(pit);
+        long childHash = zobrist.hash(childGame);
+        int child = table.get(childHash);
+        if (child == NodePool.NONE) child = newNode(childGame, childHash, worker.beforeDeadline() ? worker.solver : null);
+        int edge = child == NodePool.NONE ? NodePool.NONE : pool.addEdge(node, child, pit);
+        if (edge == NodePool.NONE) pool.releaseMove(node, offset);
+        return edge;
+    }
+
+    /**
+     * Adds a random child to the node.
+     * @return The edge that was added.
+     */
+    private int addRandomChild(int node, Worker worker) {
+        int untried = pool.untriedCount(node);
+        if (untried == 0) return NodePool.NONE;
+        return addChild(node, ThreadLocalRandom.current().nextInt(untried), worker);
+    }
+
+
+    /// Proven values
+    /**
+     * MCTS-Solver backup: decides the value of a node from the proven values of its children. The player to move at
+     * the node, which an extra turn keeps the same, wins if any child is a proven win for them and loses if it is
+     * fully expanded and every child is a proven loss for them; otherwise a fully expanded node with only proven
+     * children is a draw.
+     * @return True if the value of node is proven.
+     */
+    private boolean checkIfProven(int node) {
+        if (pool.hasFlag(node, NodePool.PROVEN)) return true;
+        boolean enemyMove = pool.hasFlag(node, NodePool.ENEMY_MOVE);
+        byte win = enemyMove ? NodePool.PROVEN_LOSS : NodePool.PROVEN_WIN;
+        byte loss = enemyMove ? NodePool.PROVEN_WIN : NodePool.PROVEN_LOSS;
+        boolean allProven = !pool.expandable(node) && pool.firstEdge(node) != NodePool.NONE;
+        boolean anyDraw = false;
+        for (int edge = pool.firstEdge(node); edge != NodePool.NONE; edge = pool.nextEdge(edge)) {
+            int child = pool.child(edge);
+            if (!pool.hasFlag(child, NodePool.PROVEN)) {
+                allProven = false;
+            } else if (pool.hasFlag(child, win)) {
+                pool.setFlag(node, (byte) (NodePool.PROVEN | win));
+                return true;
+            } else if (!pool.hasFlag(child, loss)) {
+                anyDraw = true;
+            }
+        }
+        if (!allProven) return false;
+        pool.setFlag(node, anyDraw ? NodePool.PROVEN : (byte) (NodePool.PROVEN | loss));
+        return true;
+    }
+
+    /**
+     * Same decision as checkIfProven() from the children alone, for a node whose flags are already set.
+     * @return True if a child is a proven win for the player to move, or the node is fully expanded and every child
+     *         is proven.
+     */
+    private boolean childrenProve(int node) {
+        byte win = pool.hasFlag(node, NodePool.ENEMY_MOVE) ? NodePool.PROVEN_LOSS : NodePool.PROVEN_WIN;
+        boolean allProven = !pool.expandable(node) && pool.firstEdge(node) != NodePool.NONE;
+        for (int edge = pool.firstEdge(node); edge != NodePool.NONE; edge = pool.nextEdge(edge)) {
+            int child = pool.child(edge);
+            if (!pool.hasFlag(child, NodePool.PROVEN)) allProven = false;
+            else if (pool.hasFlag(child, win)) return true;
+        }
+        return allProven;
+    }
+
+    /**
+     * @return Winner of a proven node: MY_ID, the enemy's id or FastGame.DRAW.
+     */
+    private int provenWinner(int node) {
+        if (pool.hasFlag(node, NodePool.PROVEN_WIN)) return MY_ID;
+        return pool.hasFlag(node, NodePool.PROVEN_LOSS) ? 1 - MY_ID : FastGame.DRAW;
+    }
+
+
+    /// Scoring
+    /**
+     * Calculates Upper Confidence Bound (UCB) for a node. With RAVE, the win/visit ratio is blended with the AMAF
+     * ratio, which dominates while the node has few visits of its own.
+     * @param C Parameter used in vanilla UCB. If 0, returns pure win/visit ratio.
+     * @param logParentVisits: Logarithm of the visitCount of the parent the node is scored from, computed once for
+     *                         all children.
+     * @return UCB of node
+     */
+    private double getUCB(int node, double C, double logParentVisits) {
+        int visitCount = pool.visits(node);
+        int temp_vc = visitCount == 0 ? 1 : visitCount;
+        double value = pool.wins(node) / temp_vc;
+        if (RAVE_K > 0 && pool.amafVisits(node) > 0) {
+            double beta = Math.sqrt(RAVE_K / (3. * visitCount + RAVE_K));
+            value = (1. - beta) * value + beta * pool.amafWins(node) / pool.amafVisits(node);
+        }
+        return value + C * Math.sqrt(logParentVisits / temp_vc);
+    }
+
+    private double logVisits(int node) {
+        return Math.log(Math.max(1, pool.visits(node)));
+    }
+
+    /**
+     * Calculates a score for every child and returns best child. If multiple children are tied, one is chosen at
+     * random: the k^th tied child replaces the current choice with probability 1/k, so no candidate list is needed.
+     * Does not allocate.
+     * @param UCB_C: Parameter passed to getUCB().
+     * @param skipProven: If true (selection), only children with an unproven value are candidates.
+     * @param avoidLost: If true (choosing the move), a child proven to win for the player to move is returned right
+     *                   away, children proven to lose for them only if there is nothing else.
+     * @return Edge to the child node with highest score, or NodePool.NONE if skipProven and no child is unproven.
+     */
+    int getChildWithBestScore(int node, double UCB_C, boolean getWorst, boolean skipProven, boolean avoidLost) {
+        assert skipProven || pool.firstEdge(node) != NodePool.NONE : "getChildWithBestUCB: No children available.";
+
+        boolean enemyMove = pool.hasFlag(node, NodePool.ENEMY_MOVE);
+        byte win = enemyMove ? NodePool.PROVEN_LOSS : NodePool.PROVEN_WIN;
+        byte loss = enemyMove ? NodePool.PROVEN_WIN : NodePool.PROVEN_LOSS;
+        double logParentVisits = logVisits(node);
+        // Best child, and the best child proven to lose as backup if avoidLost leaves nothing else.
+        int best = NodePool.NONE;
+        double bestScore = 0;
+        int bestTies = 0;
+        int lost = NodePool.NONE;
+        double lostScore = 0;
+        int lostTies = 0;
+        for (int edge = pool.firstEdge(node); edge != NodePool.NONE; edge = pool.nextEdge(edge)) {
+            int child = pool.child(edge);
+
+            boolean isLost = false;
+            if (pool.hasFlag(child, NodePool.PROVEN)) {
+                if (skipProven) continue;
+                if (avoidLost && pool.hasFlag(child, win)) return edge;
+                isLost = avoidLost && pool.hasFlag(child, loss);
+            }
+
+            double childScore = getUCB(child, UCB_C, logParentVisits);
+
+            if (isLost) {
+                if (lost == NodePool.NONE || (getWorst ? childScore < lostScore : childScore > lostScore)) {
+                    lost = edge;
+                    lostScore = childScore;
+                    lostTies = 1;
+                } else if (childScore == lostScore && ThreadLocalRandom.current().nextInt(++lostTies) == 0) {
+                    lost = edge;
+                }
+            } else if (best == NodePool.NONE || (getWorst ? childScore < bestScore : childScore > bestScore)) {
+                best = edge;
+                bestScore = childScore;
+                bestTies = 1;
+            } else if (childScore == bestScore && ThreadLocalRandom.current().nextInt(++bestTies) == 0) {
+                best = edge;
             }
-            String slot = possibleSlots.get(Math.min(k, possibleSlots.size()));
+        }
+        // Backup.
+        if (best != NodePool.NONE) return best;
+        if (skipProven) return NodePool.NONE;
+        return lost != NodePool.NONE ? lost : pool.firstEdge(node);
+    }
 
-            MancalaGame newGame = new MancalaGame(this.game);
-            if (!newGame.selectSlot(slot)) newGame.nextPlayer();
-            Node child = new Node(newGame);
-            child.slot = slot;
-            child.parent = this;
-            children.add(child);
-            return child;
+    /**
+     * Just for testing: Return String with score of each child.
+     * @param C UCB parameter
+     * @return String with scores
+     */
+    private String _getAllChildScores(int node, double C){
+        assert pool.firstEdge(node) != NodePool.NONE : "_getAllChildScores: No children available.";
+        StringBuilder output = new StringBuilder("\n");
+        for (int edge = pool.firstEdge(node); edge != NodePool.NONE; edge = pool.nextEdge(edge)) {
+            output.append(String.format("Slot %s: %.3f \n", layout.slotId(pool.move(edge)),
+                    getUCB(pool.child(edge), C, logVisits(node))));
+        }
+        return output.toString();
+    }
+    private String _getAllChildWinVisit(int node){
+        assert pool.firstEdge(node) != NodePool.NONE : "_getAllChildWinVisit: No children available.";
+        StringBuilder output = new StringBuilder("\n");
+        for (int edge = pool.firstEdge(node); edge != NodePool.NONE; edge = pool.nextEdge(edge)) {
+            int child = pool.child(edge);
+            String tempExploredStr = pool.hasFlag(child, NodePool.PROVEN) ? "    (proven)" : "(not proven)";
+            output.append(String.format("Slot %s %s Wins/Visits: %.1f/%d = %.3f \n", layout.slotId(pool.move(edge)),
+                    tempExploredStr, pool.wins(child), pool.visits(child), pool.wins(child) / pool.visits(child)));
+        }
+        return output.toString();
+    }
+
+
+    /**
+     * Per-thread search state. Every worker runs the select/expand/simulate/backPropagation loop on the shared tree.
+     * Positions are not stored in the tree: the worker replays the selected moves from the root on its own board.
+     * Package-private for the benchmarks.
+     */
+    class Worker implements Runnable {
+        private int root;
+        private final FastGame rootGame;
+        private final MancalaGame rootMancalaGame;
+        private final boolean pondering;
+        // Metrics, summed up by reportMetrics() after the search. Phases are only timed if someone is listening.
+        private final boolean timed;
+        private long iterations = 0;
+        private long playouts = 0;
+        private long depthSum = 0;
+        private int maxDepth = 0;
+        private final long[] phaseNanos = new long[TurnMetrics.PHASES];
+
+        // The clock is read every CLOCK_INTERVAL calls of inTime(), progress is the share of the deadline at that read.
+        private static final int CLOCK_INTERVAL = 32;
+        private int clockCountdown = 0;
+        private boolean expired = false;
+        private double progress = 0.;
+        // The coordinating worker adapts the deadline to the search results.
+        private boolean coordinator = false;
+        // Position of the last node on the selection path
+        private final FastGame game = new FastGame(layout, POINTS_TO_WIN);
+        private final FastGame childGame = new FastGame(layout, POINTS_TO_WIN);
+        private final FastGame playoutGame = new FastGame(layout, POINTS_TO_WIN);
+        // Endgame solver for new nodes, null while swindling
+        private final EndgameSolver solver = swindling ? null : newEndgameSolver();
+        // Batched rollouts, or null if every candidate gets a single playout
+        private final RolloutBatch batch = ROLLOUTS > 1 && (!CROSS_CHECK || LOCKSTEP) ? new RolloutBatch() : null;
+        private final int[] moveBuffer = new int[NUM_SLOTS];
+        // Edges created by the last expansion
+        private final int[] todoList = new int[NUM_SLOTS];
+
+        // Selection path from root to leaf, used for backpropagation since nodes can have several parents.
+        // pathMoves[i] is the pit played to reach path[i].
+        // With more than one thread, every node but the root holds a virtual loss. pathWin marks a virtual win instead.
+        private int[] path = new int[32];
+        private int[] pathMoves = new int[32];
+        private boolean[] pathWin = new boolean[32];
+        private int pathLength = 0;
+        // Pits played below the node a backpropagation starts at, the move into it included, bit i for pit i. Only
+        // recorded by single playouts; pits belong to one player, so the set also tells who played them.
+        private long playedMoves = 0;
+
+        Worker(int root) {
+            this(root, MagicBeansAgent.this.rootGame, MagicBeansAgent.this.rootMancalaGame, false);
         }
 
         /**
-         * Adds a random child to the node.
-         * @return The child that was added.
+         * @param root: Node to search from.
+         * @param rootGame: Position of root.
+         * @param rootMancalaGame: Position of root as MancalaGame, only used for the cross-check.
+         * @param pondering: If true, searches until stopPondering is set instead of until the turn's deadline.
          */
-        public Node addRandomChild() {
-            List<String> possibleSlots = game.getSelectableSlots();
-            for (Node child :children) possibleSlots.remove(child.slot);
-            return addChild(random.nextInt(possibleSlots.size()));
+        Worker(int root, FastGame rootGame, MancalaGame rootMancalaGame, boolean pondering) {
+            this.root = root;
+            this.rootGame = rootGame;
+            this.rootMancalaGame = rootMancalaGame;
+            this.pondering = pondering;
+            this.timed = !pondering && metricsEnabled;
         }
 
+        /**
+         * Thread-safe deadline check, unlike inTime() not amortized.
+         * @return True if the turn's deadline has not passed, or pondering has not been stopped. Decides whether there
+         *         is time for an endgame search, which itself is not interrupted, and for the playouts of a lane.
+         */
+        boolean beforeDeadline() {
+            return pondering ? !stopPondering : time.inTime();
+        }
 
-        /// Tree trimming methods
         /**
-         * Checks if for all children explored == True .
-         * @return True if all children are explored, false otherwise.
+         * Amortized deadline check, once expired it stays expired. While pondering there is no turn clock: progress
+         * stays 0, i.e. the search stays in its exploring first phase until stopped. With a playout budget, progress
+         * is the larger of the elapsed time and the used budget.
          */
-        public boolean allChildrenExplored() {
-            for (Node child : children) {
-                if (!child.explored) return false;
+        boolean inTime() {
+            if (expired) return false;
+            if (--clockCountdown > 0) return true;
+            clockCountdown = CLOCK_INTERVAL;
+            if (pondering) {
+                expired = stopPondering || System.nanoTime() >= ponderDeadlineNanos;
+            } else {
+                progress = time.progress();
+                if (playoutBudget > 0) {
+                    progress = Math.max(progress, (pool.visits(root) - turnRootVisits) / (double) playoutBudget);
+                }
+                expired = progress >= 1.;
+            }
+            return !expired;
+        }
+
+        @Override
+        public void run() {
+            // The coordinator expands the root even if the deadline passed before the first iteration (e.g. a long GC
+            // pause), so that doTurn() always has a move to choose from. A proven root stops the search once its
+            // children show the proof; if pruning collapsed them, the search goes on until they do again.
+            while ((inTime() || coordinator && pool.firstEdge(root) == NodePool.NONE) && !pruneRequested
+                    && !(pool.hasFlag(root, NodePool.PROVEN) && childrenProve(root))) {
+                iterate();
+                if (iterations % TIME_CHECK_INTERVAL == 0) {
+                    if (coordinator) manageTime(root, progress);
+                    // Pondering cannot prune, it stops and leaves the pool to the next turn's compaction.
+                    if (pool.usageAbove(PRUNE_AT)) pruneRequested = true;
+                }
             }
-            return true;
         }
 
         /**
-         * Checks if a node is fully expanded and all children are explored.
-         * @return True if node fully expanded and all children are explored, false otherwise.
+         * One select/expand/simulate/backPropagation round. Package-private for the benchmarks.
          */
-        public boolean allMovesExplored() {return !expandable() && allChildrenExplored();}
+        void iterate() {
+            int leaf;
+            int todoCount;
 
-        //
-        private boolean anyChildEnemyWin(){
-            for (Node child : children) {
-                if (child.isEnemyWin) return true;
+            double perc_1 = 0.5;
+            double perc_2 = 0.75;
+            double perc_3 = 0.95;
+
+            long start = timed ? System.nanoTime() : 0L;
+
+            // Selection Strategy
+            if (progress < perc_1)          leaf = select(root, Selection.UCT, 10., this);
+            else if (progress < perc_2)     leaf = select(root, Selection.ENEMY_PERSPECTIVE, 5., this);
+            else if (progress < perc_3)     leaf = select(root, Selection.ENEMY_PERSPECTIVE, DEFAULT_C, this);
+            else                            leaf = select(root, Selection.UCT, 0., this);
+            iterations++;
+            depthSum += pathLength - 1;
+            maxDepth = Math.max(maxDepth, pathLength - 1);
+            if (timed) start = lap(TurnMetrics.SELECT, start);
+
+            // Expansion Strategy
+            if (progress < perc_1)          todoCount = expand(leaf, this);
+            else if (progress < perc_3)     todoCount = expand(leaf, "k-random", 3, this);
+            else                            todoCount = expand(leaf, "k-random", 1, this);
+            if (timed) start = lap(TurnMetrics.EXPAND, start);
+
+            if (todoCount == 0) {
+                // All children of the leaf are proven (found via transpositions), the pool is full, or another worker
+                // expanded the leaf first: back up the leaf's proven value, or play out from the leaf itself.
+                double result;
+                if (checkIfProven(leaf)) {
+                    result = provenValue(leaf);
+                    playedMoves = 0;
+                } else {
+                    result = simulate(game, this);
+                    playouts++;
+                }
+                if (timed) start = lap(TurnMetrics.SIMULATE, start);
+                pathLength--;   // backPropagation() starts at the leaf, which is the end of the path
+                playedMoves |= moveBit(pathMoves[pathLength]);
+                backPropagation(leaf, 1, result, this);
+                pathLength++;
+                if (timed) lap(TurnMetrics.BACKPROPAGATE, start);
+                clearPath();
+                return;
             }
-            return false;
-        }
-        private boolean allChildrenTabu(){
-            if (expandable()) return false;
-            for (Node child : children) {
-                if (!child.tabu) return false;
+
+            if (batch != null) {
+                batch.run(todoCount);
+                if (timed) start = lap(TurnMetrics.SIMULATE, start);
+                for (int i = 0; i < todoCount; i++) {
+                    playedMoves = moveBit(pool.move(todoList[i]));
+                    backPropagation(pool.child(todoList[i]), batch.visits[i], batch.wins[i], this);
+                }
+                if (timed) lap(TurnMetrics.BACKPROPAGATE, start);
+                clearPath();
+                return;
             }
-            return true;
-        }
-        public boolean checkIfIsEnemyWin() {
-            if (!isEnemyWin && isEnemyMove && ((gameOver(this) && winState.getPlayerId() != MY_ID) || this.anyChildEnemyWin())) {
-                isEnemyWin = true;
+
+            for (int i = 0; i < todoCount; i++) {   // Do simulation & backpropagation for each candidate separately
+                int edge = todoList[i];
+                childGame.copyFrom(game);
+                childGame.play(pool.move(edge));
+                // Simulation, proven positions (game over or solved endgames) need no playout.
+                int child = pool.child(edge);
+                double result;
+                if (pool.hasFlag(child, NodePool.PROVEN)) {
+                    result = provenValue(child);
+                    playedMoves = 0;
+                } else {
+                    result = CROSS_CHECK ? simulateCrossChecked(childGame, replayPath(pool.move(edge)), this)
+                            : simulate(childGame, this);
+                }
+                playedMoves |= moveBit(pool.move(edge));
+                playouts++;
+                if (timed) start = lap(TurnMetrics.SIMULATE, start);
+                // Backpropagation
+                backPropagation(child, 1, result, this);
+                if (timed) start = lap(TurnMetrics.BACKPROPAGATE, start);
             }
-            return isEnemyWin;
-        }
-        public boolean checkIfTabu(){
-            if (!tabu && !isEnemyMove && (anyChildEnemyWin() || allChildrenTabu())) tabu = true;
-            return tabu;
+            clearPath();
         }
 
+        private long lap(int phase, long since) {
+            long now = System.nanoTime();
+            phaseNanos[phase] += now - since;
+            return now;
+        }
 
-        /// Scoring
         /**
-         * Calculates Upper Confidence Bound (UCB) for this node.
-         * @param C Parameter used in vanilla UCB. If 0, returns pure win/visit ratio.
-         * @return UCB of node
+         * Appends a node to the selection path and plays its move on the worker's board.
+         * Virtual loss: with more than one thread, every node below the root counts a visit without a win while it is
+         * on the path, so other workers prefer different paths until the result is backpropagated. Nodes chosen as
+         * the enemy's (worst) move get a virtual win instead.
+         * @param edge: Edge that was just selected, or NodePool.NONE for the root.
+         * @param asWin: If true, adds a virtual win as well.
+         * @return The node the edge leads to.
          */
-        private double getUCB(Double C) {
-            assert parent != null : "getUCB: parent must not be null.";
-            int temp_vc = visitCount == 0 ? 1 : visitCount;
-            C = C == null ? DEFAULT_C : C;
-            return (((double) winCount) / temp_vc) + C * Math.sqrt(Math.log(parent.visitCount) / temp_vc);
+        private int addToPath(int edge, boolean asWin) {
+            if (pathLength == path.length) {
+                path = Arrays.copyOf(path, 2 * pathLength);
+                pathMoves = Arrays.copyOf(pathMoves, 2 * pathLength);
+                pathWin = Arrays.copyOf(pathWin, 2 * pathLength);
+            }
+            int node;
+            if (edge == NodePool.NONE) {
+                node = root;
+                game.copyFrom(rootGame);
+                pathMoves[pathLength] = NodePool.NONE;
+            } else {
+                node = pool.child(edge);
+                game.play(pool.move(edge));
+                pathMoves[pathLength] = pool.move(edge);
+                if (THREADS > 1) {
+                    pool.addVisits(node, 1);
+                    if (asWin) pool.addWins(node, 1);
+                }
+            }
+            path[pathLength] = node;
+            pathWin[pathLength++] = asWin;
+            return node;
         }
 
         /**
-         * Calculates a score for every child and returns best child. If multiple children are tied, one is chosen at random.
-         * @param UCB_C: Parameter passed to getUCB().
-         * @param avoidExplored: If true, does not return children with explored=true.
-         * @param avoidTabu: If true, does not return children with tabu=true.
-         * @return Child node with highest score.
+         * Empties the selection path and reverts its virtual losses.
          */
-        public Node getChildWithBestScore(Double UCB_C, boolean getWorst, boolean avoidExplored, boolean avoidTabu) {
-            assert children.size() > 0 : "getChildWithBestUCB: No children available.";
-
-            ArrayList<Node> candidateList = new ArrayList<>();
-            double bestScore = getWorst ? Double.POSITIVE_INFINITY : 0;
-            for (Node child : children) {
+        void clearPath() {
+            if (THREADS > 1) {
+                for (int i = 1; i < pathLength; i++) {
+                    pool.addVisits(path[i], -1);
+                    if (pathWin[i]) pool.removeWin(path[i]);
+                }
+            }
+            pathLength = 0;
+        }
 
-                double childScore = child.getUCB(UCB_C);
+        /**
+         * Leaf-parallel simulation: ROLLOUTS playouts for each candidate of the last expansion, split into lanes that
+         * run on the rollout pool. Every lane has its own board and counters, so the lanes share nothing but the
+         * candidate positions; the counters are summed up per candidate once all lanes are done. Playouts are only
+         * cut off by the rollout policy, not by the deadline: a batch is short enough to finish. With a lockstep
+         * backend, the worker plays all playouts of the batch itself, advancing them together.
+         */
+        final class RolloutBatch {
+            private final FastGame[] candidates = new FastGame[NUM_SLOTS];
+            private final RolloutLane[] lanes;
+            // Lockstep backend, or null; candidate of every lane, and the board for evaluating cutoffs.
+            private final LockstepPlayouts lockstep;
+            private final int[] laneCandidate;
+            private final FastGame cutoff = new FastGame(layout, POINTS_TO_WIN);
+            // Lockstep playouts run in the worker's thread and stop at its deadline.
+            private final BooleanSupplier inTime = Worker.this::inTime;
+            // Playouts and their summed up values for MY_ID per candidate
+            final int[] visits = new int[NUM_SLOTS];
+            final double[] wins = new double[NUM_SLOTS];
+            // Candidates with a proven value, which need no playouts
+            private final boolean[] proven = new boolean[NUM_SLOTS];
+
+            RolloutBatch() {
+                for (int i = 0; i < NUM_SLOTS; i++) candidates[i] = new FastGame(layout, POINTS_TO_WIN);
+                if (LOCKSTEP) {
+                    if (!ROLLOUT_BACKEND.equals("lockstep")) {
+                        throw new IllegalArgumentException("Unknown rollout backend: " + ROLLOUT_BACKEND);
+                    }
+                    lanes = new RolloutLane[0];
+                    lockstep = new LockstepPlayouts(layout, POINTS_TO_WIN, ROLLOUTS * NUM_SLOTS, CROSS_CHECK);
+                    laneCandidate = new int[lockstep.capacity()];
+                } else {
+                    lanes = new RolloutLane[Math.min(ROLLOUT_THREADS, ROLLOUTS * NUM_SLOTS)];
+                    for (int i = 0; i < lanes.length; i++) lanes[i] = new RolloutLane();
+                    lockstep = null;
+                    laneCandidate = null;
+                }
+            }
 
-                if (((!getWorst && childScore >= bestScore) || (getWorst && childScore <= bestScore)) &&
-                        (!child.explored || !avoidExplored) && (!child.tabu || !avoidTabu)) {
-                    if (childScore != bestScore) {
-                        candidateList.clear();
-                        bestScore = childScore;
+            /**
+             * Plays out the first todoCount candidates of todoList.
+             */
+            void run(int todoCount) {
+                int playoutCount = 0;
+                for (int i = 0; i < todoCount; i++) {
+                    int edge = todoList[i];
+                    int child = pool.child(edge);
+                    candidates[i].copyFrom(game);
+                    candidates[i].play(pool.move(edge));
+                    visits[i] = 0;
+                    wins[i] = 0;
+                    proven[i] = pool.hasFlag(child, NodePool.PROVEN);
+                    if (proven[i]) {
+                        // Every playout would end with the known value.
+                        visits[i] = ROLLOUTS;
+                        wins[i] = ROLLOUTS * provenValue(child);
+                    } else {
+                        playoutCount += ROLLOUTS;
                     }
-                    candidateList.add(child);
+                }
+                playouts += playoutCount;
+                if (lockstep != null) {
+                    runLockstep(todoCount);
+                    return;
                 }
 
-                // Fully explored and winning all games = guaranteed win.
-                if (!avoidExplored && child.explored && child.getUCB(0.) >= 1.) {
-                    return child;
+                int laneCount = Math.min(lanes.length, Math.max(1, playoutCount));
+                for (int lane = 0; lane < laneCount; lane++) {
+                    lanes[lane].reinitialize();
+                    lanes[lane].todoCount = todoCount;
+                    lanes[lane].from = lane * ROLLOUTS * todoCount / laneCount;
+                    lanes[lane].to = (lane + 1) * ROLLOUTS * todoCount / laneCount;
+                }
+                if (laneCount > 1 && rolloutPool == null) startRolloutPool();
+                for (int lane = 1; lane < laneCount; lane++) rolloutPool.execute(lanes[lane]);
+                lanes[0].invoke();
+                for (int lane = 1; lane < laneCount; lane++) lanes[lane].join();
+
+                for (int lane = 0; lane < laneCount; lane++) {
+                    for (int i = 0; i < todoCount; i++) {
+                        visits[i] += lanes[lane].visits[i];
+                        wins[i] += lanes[lane].wins[i];
+                    }
                 }
+            }
 
+            private void runLockstep(int todoCount) {
+                lockstep.clear();
+                for (int i = 0; i < todoCount; i++) {
+                    if (proven[i]) continue;
+                    for (int k = 0; k < ROLLOUTS; k++) laneCandidate[lockstep.add(candidates[i])] = i;
+                }
+                lockstep.run(rolloutPolicy, inTime);
+                for (int lane = 0; lane < lockstep.count(); lane++) {
+                    int candidate = laneCandidate[lane];
+                    int winner = lockstep.winner(lane);
+                    visits[candidate]++;
+                    wins[candidate] += winner != FastGame.NONE ? valueOf(winner)
+                            : RolloutPolicy.evaluate(lockstep.unpack(lane, cutoff), MY_ID, POINTS_TO_WIN);
+                }
             }
-            // Backup.
-            if (candidateList.size() == 0) {
-                if (avoidTabu) return getChildWithBestScore(UCB_C, getWorst, avoidExplored, false);
-                if (avoidExplored) return getChildWithBestScore(UCB_C, getWorst,false, false);
-                return children.getFirst();
+
+            /**
+             * Playouts from..to-1 of the batch; playout j belongs to candidate j / ROLLOUTS. Lanes run on the rollout
+             * pool, so they check the deadline before every playout; once it has passed, the remaining playouts are
+             * scored by the static evaluation of their candidate.
+             */
+            @SuppressWarnings("serial")     // never serialized, RecursiveAction is Serializable by inheritance
+            final class RolloutLane extends RecursiveAction {
+                private final FastGame board = new FastGame(layout, POINTS_TO_WIN);
+                private final int[] moveBuffer = new int[NUM_SLOTS];
+                private final EndgameSolver laneSolver = swindling ? null : newEndgameSolver();
+                private final int[] visits = new int[NUM_SLOTS];
+                private final double[] wins = new double[NUM_SLOTS];
+                private int todoCount;
+                private int from;
+                private int to;
+
+                @Override
+                protected void compute() {
+                    for (int i = 0; i < todoCount; i++) {
+                        visits[i] = 0;
+                        wins[i] = 0;
+                    }
+                    boolean inTime = true;
+                    for (int j = from; j < to; j++) {
+                        int candidate = j / ROLLOUTS;
+                        if (proven[candidate]) continue;
+                        visits[candidate]++;
+                        inTime = inTime && beforeDeadline();
+                        wins[candidate] += inTime ? playout(candidates[candidate], board, moveBuffer, laneSolver, null)
+                                : RolloutPolicy.evaluate(candidates[candidate], MY_ID, POINTS_TO_WIN);
+                    }
+                }
             }
-            return candidateList.get(random.nextInt(candidateList.size()));
-        }
-        public Node getChildWithBestScore(Double UCB_C, boolean avoidExplored, boolean avoidTabu) {
-            return getChildWithBestScore(UCB_C, false, avoidExplored, avoidTabu);
         }
 
         /**
-         * Just for testing: Return String with score of each child.
-         * @param C UCB parameter
-         * @return String with scores
+         * Cross-check helper: replays the selection path and one more move on a copy of the root's MancalaGame.
+         * @param move: Pit played after the last node of the path.
+         * @return MancalaGame in the same position as childGame.
          */
-        public String _getAllChildScores(Double C){
-            assert children.size() > 0 : "_getAllChildScores: No children available.";
-            StringBuilder output = new StringBuilder("\n");
-            for (Node child : children) output.append(String.format("Slot %s: %.3f \n", child.slot, child.getUCB(C)));
-            return output.toString();
-        }
-        public String _getAllChildWinVisit(){
-            assert children.size() > 0 : "_getAllChildWinVisit: No children available.";
-            StringBuilder output = new StringBuilder("\n");
-            for (Node child : children) {
-                String tempExploredStr = child.explored ? "    (fully explored)" : "(not fully explored)";
-                output.append(String.format("Slot %s %s Wins/Visits: %d/%d = %.3f \n", child.slot, tempExploredStr, child.winCount,
-                        child.visitCount, (child.winCount*1.0/child.visitCount)));
-            }
-            return output.toString();
-        }
-        public boolean hasWinningChild(){
-            for (Node child: children) {
-                if(child.explored && child.getUCB(0.) >= 1) return true;
+        private MancalaGame replayPath(int move) {
+            MancalaGame replay = new MancalaGame(rootMancalaGame);
+            for (int i = 1; i <= pathLength; i++) {
+                int pit = i < pathLength ? pathMoves[i] : move;
+                if (!replay.selectSlot(layout.slotId(pit))) replay.nextPlayer();
             }
-            return false;
+            return replay;
         }
-
     }
 
     /**
-     * Main MCTS based routine for a single turn of a Mancala game.
-     * @param computationTime max computation time available.
-     * @param mancalaGame a game state.
-     * @return the children node from root with the highest score, i.e. best move found.
+     * Runs the workers until they run out of time. The first worker runs in the calling thread, the others on the
+     * search pool.
+     * @param workers: One worker per thread.
      */
-    @Override
-    public MancalaAgentAction doTurn(int computationTime, MancalaGame mancalaGame) {
-        this.MY_ID = mancalaGame.getState().getCurrentPlayer();
-        this.NUM_SLOTS = Math.max(Integer.parseInt(mancalaGame.getBoard().getDepotOfPlayer(0)),
-                Integer.parseInt(mancalaGame.getBoard().getDepotOfPlayer(1))) - 2;
-        this.POINTS_TO_WIN = mancalaGame.getBoard().getStonesPerSlot() * NUM_SLOTS;
-        this.STARTTIME = System.currentTimeMillis();
-        this.COMPUTATIONTIME = computationTime;
-
-        if (mancalaGame.getSelectableSlots().size() == 1){
-            System.out.println("Playing only available slot.\n");
-            return new MancalaAgentAction(mancalaGame.getSelectableSlots().get(0));
+    private void runWorkers(Worker[] workers) {
+        if (workers.length == 1) {
+            workers[0].run();
+            return;
         }
-
-        // Load winning node from previous turn and find offspring that matches current game and use it as root.
-        Node root = null;
-        if (LAST_WINNER != null) root = getMatchingNode(mancalaGame, LAST_WINNER);
-        root = root == null ? new Node(mancalaGame) : root;
-        root.parent = null;
-
-        // if (root.children.size()>0) System.out.println("\nLoaded Search-Tree Root Children:" + root._getAllChildWinVisit());
-
-        if (gameOver(root)){   // Just for quality of life.
-            System.out.println("Game is over, playing first slot\n");
-            LAST_WINNER = null;
-            return new MancalaAgentAction(mancalaGame.getSelectableSlots().get(0));
+        if (searchPool == null) {
+            searchPool = Executors.newFixedThreadPool(workers.length - 1, r -> {
+                Thread thread = new Thread(r, "magicbeans-search");
+                thread.setDaemon(true);
+                return thread;
+            });
         }
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 1; i < workers.length; i++) futures.add(searchPool.submit(workers[i]));
+        workers[0].run();
+        awaitAll(futures);
+    }
 
-        Node leaf;
-        ArrayList<Node> todoList = new ArrayList<>();
-
-        double perc_1 = 0.5;
-        double perc_2 = 0.75;
-        double perc_3 = 0.95;
+    private static void awaitAll(List<Future<?>> futures) {
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Search worker failed", e.getCause());
+            }
+        }
+    }
 
-        while (inTime() && !root.explored && !root.hasWinningChild()) {
-            todoList.clear();
+    /**
+     * Pondering: searches the subtree of the chosen move on background threads until the next doTurn(). The
+     * opponent's reply is then usually found in the transposition table and its node becomes the next root with
+     * its statistics intact.
+     * @param winnerEdge: Edge of the move that is about to be played.
+     * @param mancalaGame: The game state before that move.
+     */
+    private void startPondering(int winnerEdge, MancalaGame mancalaGame) {
+        int ponderRoot = pool.child(winnerEdge);
+        if (pool.hasFlag(ponderRoot, NodePool.PROVEN)) return;
+
+        FastGame ponderGame = new FastGame(layout, POINTS_TO_WIN);
+        ponderGame.copyFrom(rootGame);
+        ponderGame.play(pool.move(winnerEdge));
+        MancalaGame ponderMancalaGame = null;
+        if (CROSS_CHECK) {  // The framework keeps using mancalaGame, so the replay needs its own copy.
+            ponderMancalaGame = new MancalaGame(mancalaGame);
+            if (!ponderMancalaGame.selectSlot(layout.slotId(pool.move(winnerEdge)))) ponderMancalaGame.nextPlayer();
+        }
 
-            // Selection Strategy
-            if (inTime(perc_1))         leaf = select(root, "", 10.);
-            else if (inTime(perc_2))    leaf = select(root, "enemy_perspective", 5.);
-            else if (inTime(perc_3))    leaf = select(root, "enemy_perspective", DEFAULT_C);
-            else                        leaf = select(root, "", 0.);
+        if (ponderPool == null) {
+            ponderPool = Executors.newFixedThreadPool(THREADS, r -> {
+                Thread thread = new Thread(r, "magicbeans-ponder");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        stopPondering = false;
+        // Bounded by the own turn time, so a finished match does not keep the threads busy.
+        ponderDeadlineNanos = System.nanoTime() + COMPUTATIONTIME * 1_000_000_000;
+        for (int i = 0; i < THREADS; i++) {
+            ponderTasks.add(ponderPool.submit(new Worker(ponderRoot, ponderGame, ponderMancalaGame, true)));
+        }
+    }
 
-            // Expansion Strategy
-            if (inTime(perc_1))         todoList = expand(leaf);
-            else if (inTime(perc_3))    todoList = expand(leaf, "k-random", 3);
-            else                        todoList = expand(leaf, "k-random", 1);
+    /**
+     * Stops pondering and waits until every pondering worker has finished its current iteration. Has to be called
+     * before the pool is compacted or cleared.
+     */
+    private void stopPondering() {
+        if (ponderTasks.isEmpty()) return;
+        stopPondering = true;
+        awaitAll(ponderTasks);
+        ponderTasks.clear();
+    }
 
-            for (Node candidate : todoList) {   // Do simulation & backpropagation for each candidate separately
-                // Simulation
-                WinState result = simulate(candidate.game);
-                // Backpropagation
-                backPropagation(candidate, result);
-            }
+    /**
+     * Stops pondering and shuts down the search, ponder and rollout threads of this agent. Match runners that create
+     * an agent per game call it after the game; an agent that plays on afterwards starts new threads as needed.
+     */
+    @Override
+    public void close() {
+        synchronized (turnLock) {
+            stopPondering();
+            if (searchPool != null) searchPool.shutdownNow();
+            if (ponderPool != null) ponderPool.shutdownNow();
+            searchPool = null;
+            ponderPool = null;
         }
-        Node winner = root.getChildWithBestScore(DEFAULT_C, false, false, false);
-
-        LAST_WINNER = winner;
-        LAST_WINNER.parent = null;
+        synchronized (this) {
+            if (rolloutPool != null) rolloutPool.shutdownNow();
+            rolloutPool = null;
+        }
+    }
 
-        return new MancalaAgentAction(winner.slot);
+    /**
+     * Selection strategies of select().
+     */
+    enum Selection {
+        // Vanilla UCT: the child with the best score, down to a leaf.
+        UCT,
+        // Stops at the first node with at most T = NUM_SLOTS / 2 children, so it gets expanded further.
+        THRESHOLD,
+        // On the enemy's moves, the child with the worst score is chosen.
+        ENEMY_PERSPECTIVE
     }
 
     /**
      * Starting from the root node we look for a node to expand using the chosen strategy.
      * @param root: Root node of the tree.
-     * @param strategy: Selection strategy. Default: UCT with C=sqrt(2) and T=0.
+     * @param strategy: Selection strategy.
+     * @param UCB_C: Parameter passed to getUCB().
+     * @param worker: Worker that records the selected path and replays it on its board.
      * @return Candidate node to expand.
      */
-    private Node select(Node root, String strategy, Double UCB_C){
-        Node candidate = root;
-
-        // Default values
-        int T = (int) Math.ceil(NUM_SLOTS/2.);
+    int select(int root, Selection strategy, double UCB_C, Worker worker){
+        int candidate = worker.addToPath(NodePool.NONE, false);
+        int edge;
 
+        // Proven children are never selected: the search stops at a node whose children are all proven.
         switch(strategy) {
-            case "T":   // If a child has less than T expanded nodes, it is chosen for expansion.
-                while (candidate.children.size() > T){
-                    candidate = candidate.getChildWithBestScore(UCB_C, true, false);
-                }
-                break;
-            case "enemy_perspective":   // on enemy move, the move with worst score is chosen.
-                while (candidate.children.size() > 0) {
-                    if (candidate.children.getFirst().isEnemyMove) {
-                        candidate = candidate.getChildWithBestScore(UCB_C, true, true, false);
-                    } else {
-                        candidate = candidate.getChildWithBestScore(UCB_C, false, true, false);
-                    }
+            case THRESHOLD:   // If a child has less than T expanded nodes, it is chosen for expansion.
+                int T = (NUM_SLOTS + 1) / 2;
+                while (pool.childCount(candidate) > T
+                        && (edge = getChildWithBestScore(candidate, UCB_C, false, true, false)) != NodePool.NONE) {
+                    candidate = worker.addToPath(edge, false);
                 }
                 break;
-            case "avoidTabu":
-                while (candidate.children.size() > 0){
-                    candidate = candidate.getChildWithBestScore(UCB_C, true, true);
+            case ENEMY_PERSPECTIVE:   // on enemy move, the move with worst score is chosen.
+                while (pool.firstEdge(candidate) != NodePool.NONE) {
+                    boolean getWorst = pool.hasFlag(pool.child(pool.firstEdge(candidate)), NodePool.ENEMY_MOVE);
+                    if ((edge = getChildWithBestScore(candidate, UCB_C, getWorst, true, false)) == NodePool.NONE) break;
+                    candidate = worker.addToPath(edge, getWorst);
                 }
                 break;
-            default:    // Vanilla UCT, C=sqrt(2), T=0
-                while (candidate.children.size() > 0){
-                    candidate = candidate.getChildWithBestScore(UCB_C, true, false);
+            default:    // Vanilla UCT, T=0
+                while ((edge = getChildWithBestScore(candidate, UCB_C, false, true, false)) != NodePool.NONE) {
+                    candidate = worker.addToPath(edge, false);
                 }
         }
         return candidate;
@@ -345,85 +1324,212 @@ public class MagicBeansAgent implements MancalaAgent {
 
     /**
      * Expands the input node according to selected strategy.
-     * @param parent: Node to expand.
+     * @param parent: Node to expand, its position is worker.game.
      * @param strategy: Expansion strategy. Default: Expand once at random.
      * @param k: Number of nodes in "k-random" strategy.
-     * @return An ArrayList of the newly created child nodes ready for simulation. (Empty ArrayList if game ends with parent)
+     * @param worker: Worker that receives the new edges in its todoList.
+     * @return Number of newly created edges ready for simulation. (0 if game ends with parent)
      */
-    private ArrayList<Node> expand(Node parent, String strategy, int k){
-        ArrayList<Node> candidateList = new ArrayList<>();
+    int expand(int parent, String strategy, int k, Worker worker){
+        int count = 0;
 
-        if (gameOver(parent) || !parent.expandable()) return candidateList;
+        if (gameOver(parent)) return count;
 
+        // Moves are claimed atomically, so workers that selected the same leaf expand different moves.
+        int edge;
         if ("k-random".equals(strategy)) {
             for (int i = 0; i < k; i++) {
-                if (parent.expandable()) {
-                    candidateList.add(parent.addRandomChild());
-                } else break;
+                if ((edge = addRandomChild(parent, worker)) == NodePool.NONE) break;
+                worker.todoList[count++] = edge;
             }
         } else {   // Expand all possible moves
-            while (parent.expandable()) {
-                candidateList.add(parent.addChild(0));
+            while ((edge = addChild(parent, 0, worker)) != NodePool.NONE) {
+                worker.todoList[count++] = edge;
             }
         }
-        return candidateList;
+        return count;
     }
-    private ArrayList<Node> expand(Node parent){
-        return expand(parent, "", 2);
+    int expand(int parent, Worker worker){
+        return expand(parent, "", 2, worker);
     }
 
     /**
-     * Given a game instance, moves are played according to selected strategy until the game is over.
-     * @param game: A Mancala game.
-     * @return The game state of the played out game.
+     * Given a game instance, moves are played according to the rollout policy until the game is over or the policy
+     * cuts the playout off. The playout does not allocate.
+     * @param game: Start position, left unchanged.
+     * @param worker: Worker whose playout board is used.
+     * @return Value of the playout for MY_ID, between 0 (loss) and 1 (win).
      */
-    private WinState simulate(MancalaGame game){
-        game = new MancalaGame(game);
+    double simulate(FastGame game, Worker worker){
+        return playout(game, worker.playoutGame, worker.moveBuffer, worker.solver, worker);
+    }
 
-        while(!gameOver(game) && inTime() && game.getSelectableSlots().size() > 0) {
-            String play;
-            do {
-                List<String> legalMoves = game.getSelectableSlots();
-                play = legalMoves.get(random.nextInt(legalMoves.size()));
-            } while(game.selectSlot(play));
-            game.nextPlayer();
+    /**
+     * Playout on the given scratch board. A playout that is cut off, by the depth of the rollout policy or by the
+     * deadline, is scored by the static evaluation, so every playout counts.
+     * @param game: Start position, left unchanged.
+     * @param board: Playout board.
+     * @param moveBuffer: Buffer for the legal moves.
+     * @param solver: Endgame solver whose tablebase ends the playout early, or null.
+     * @param worker: Worker whose deadline ends the playout early and which records the played pits, or null.
+     * @return Value of the playout for MY_ID: 1 for a win, 0 for a loss, DRAW_VALUE for a draw, or the static
+     * evaluation of the position where it was cut off.
+     */
+    private double playout(FastGame game, FastGame board, int[] moveBuffer, EndgameSolver solver, Worker worker) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        RolloutPolicy policy = rolloutPolicy;
+        int movesLeft = policy.depth() > 0 ? policy.depth() : Integer.MAX_VALUE;
+        board.copyFrom(game);
+
+        int winner;
+        long played = 0;
+        while ((winner = board.winner()) == FastGame.NONE) {
+            // The playout ends with the exact result once it reaches the tablebase.
+            if (solver != null && (winner = solver.probe(board)) != FastGame.NONE) break;
+            if (movesLeft-- == 0 || (worker != null && !worker.inTime())) break;
+            int count = board.legalMoves(moveBuffer);
+            if (count == 0) break;
+            int pit = policy.chooseMove(board, moveBuffer, count, random);
+            board.play(pit);
+            played |= 1L << pit;
         }
-        return getWinner(game);
+        if (worker != null) worker.playedMoves = played;
+        return winner == FastGame.NONE ? RolloutPolicy.evaluate(board, MY_ID, POINTS_TO_WIN) : valueOf(winner);
     }
 
     /**
-     * The tree is traversed upwards and the visitCount is incremented. If the Path is winnable, the winCount is too.
-     * @param node: Node from which to start the backpropagation.
-     * @param simulationResult: Result of the simulated game started at input node.
+     * @param winner: Player id or FastGame.DRAW.
+     * @return Value of the result for MY_ID.
+     */
+    private double valueOf(int winner) {
+        return winner == FastGame.DRAW ? DRAW_VALUE : winner == MY_ID ? 1. : 0.;
+    }
+
+    /**
+     * @return Value of a proven node for MY_ID.
+     */
+    private double provenValue(int node) {
+        return valueOf(provenWinner(node));
+    }
+
+    /**
+     * Replaces the rollout policy, e.g. to let differently configured agents play against each other.
+     * Package-private for the benchmarks.
+     */
+    void setRolloutPolicy(RolloutPolicy rolloutPolicy) {
+        this.rolloutPolicy = rolloutPolicy;
+    }
+
+    /**
+     * Limits every turn to the given number of new root visits, i.e. about as many playouts, on top of its time
+     * budget. Package-private for the benchmarks.
+     * @param playouts: Root visits per turn, 0 for no limit.
      */
-    private void backPropagation(Node node, WinState simulationResult){
+    void setPlayoutBudget(long playouts) {
+        this.playoutBudget = Math.max(0, playouts);
+    }
 
-        if (simulationResult.getState() != WinState.States.SOMEONE) return;   // We don't backprop if simulation did not finish.
+    private synchronized void startRolloutPool() {
+        if (rolloutPool == null) rolloutPool = new ForkJoinPool(ROLLOUT_THREADS);
+    }
 
-        if (gameOver(node)) {
-            node.explored = true;
+    /**
+     * Same as simulate(), but every move is also played on a MancalaGame and both states are compared.
+     * @param game: Start position, left unchanged.
+     * @param mancalaGame: The same position as MancalaGame, replayed from the root.
+     * @param worker: Worker whose playout board is used.
+     * @return Value of the playout for MY_ID, see playout().
+     * @throws IllegalStateException if FastGame and MancalaGame disagree.
+     */
+    private double simulateCrossChecked(FastGame game, MancalaGame mancalaGame, Worker worker){
+        FastGame board = worker.playoutGame;
+        int[] moveBuffer = worker.moveBuffer;
+        board.copyFrom(game);
+        if (!board.matches(mancalaGame, board.winner() == FastGame.NONE)) {
+            throw new IllegalStateException("Cross-check: tree position differs, expected"
+                    + getGameBoardString(mancalaGame));
         }
 
-        boolean hasWon = simulationResult.getPlayerId() == MY_ID;
-        Node tempNode = node;
-        while (tempNode != null) {
-            tempNode.visitCount++;
-            if (hasWon) tempNode.winCount++;
+        RolloutPolicy policy = rolloutPolicy;
+        int movesLeft = policy.depth() > 0 ? policy.depth() : Integer.MAX_VALUE;
+        int winner;
+        worker.playedMoves = 0;
+        while ((winner = board.winner()) == FastGame.NONE && movesLeft-- > 0 && worker.inTime()) {
+            int count = board.legalMoves(moveBuffer);
+            if (count != mancalaGame.getSelectableSlots().size()) {
+                throw new IllegalStateException("Cross-check: legal moves differ, expected "
+                        + mancalaGame.getSelectableSlots() + " but got " + count);
+            }
+            if (count == 0) break;
+            int pit = policy.chooseMove(board, moveBuffer, count, ThreadLocalRandom.current());
+            boolean extraTurn = board.play(pit);
+            worker.playedMoves |= 1L << pit;
+            boolean expectedExtraTurn = mancalaGame.selectSlot(layout.slotId(pit));
+            if (!expectedExtraTurn) mancalaGame.nextPlayer();
+            boolean running = board.winner() == FastGame.NONE;
+            if (extraTurn != expectedExtraTurn && running) {
+                throw new IllegalStateException("Cross-check: extra turn differs after slot " + layout.slotId(pit));
+            }
+            if (!board.matches(mancalaGame, running)) {
+                throw new IllegalStateException("Cross-check: boards differ after slot " + layout.slotId(pit)
+                        + ", expected" + getGameBoardString(mancalaGame));
+            }
+        }
+        WinState expected = getWinner(mancalaGame);
+        int expectedWinner = expected.getState() == WinState.States.NOBODY ? FastGame.NONE
+                : expected.getState() == WinState.States.SOMEONE ? expected.getPlayerId() : FastGame.DRAW;
+        if (expectedWinner != winner) {
+            throw new IllegalStateException("Cross-check: winner differs, expected " + expectedWinner
+                    + " but got " + winner);
+        }
+        return winner == FastGame.NONE ? RolloutPolicy.evaluate(board, MY_ID, POINTS_TO_WIN) : valueOf(winner);
+    }
 
-            /// We (mis-)use backPropagation() to update some booleans
-            // We update the explored status of nodes on the path.
-            if (tempNode.allMovesExplored()) tempNode.explored = true;
+    /**
+     * The selection path is traversed upwards, the visitCount is incremented and the values of the playouts are
+     * added to the winCount.
+     * @param node: Node from which to start the backpropagation.
+     * @param visits: Number of playouts.
+     * @param wins: Summed up values of the playouts for MY_ID, a win counts 1 and a draw DRAW_VALUE.
+     * @param worker: Worker holding the selection path that led to node.
+     */
+    void backPropagation(int node, int visits, double wins, Worker worker){
+
+        int tempNode = node;
+        int pathIndex = worker.pathLength;
+        boolean proven = true;
+        long playedBelow = worker.playedMoves;
+        while (tempNode != NodePool.NONE) {
+            if (visits > 0) pool.addVisits(tempNode, visits);
+            if (wins > 0) pool.addWins(tempNode, wins);
+
+            // AMAF: children of the path nodes whose move was played further down share the result.
+            if (RAVE_K > 0 && pathIndex < worker.pathLength) {
+                updateAmaf(tempNode, playedBelow, visits, wins);
+                playedBelow |= moveBit(worker.pathMoves[pathIndex]);
+            }
 
-            // We check if the node allows the enemy to win.
-            if (tempNode.checkIfIsEnemyWin()) tempNode.winCount = 0;
+            // Proven values are backed up as long as the child just below was proven.
+            proven = proven && checkIfProven(tempNode);
 
-            // We check if a node has a child that allows the enemy to win. If so, that node becomes tabu.
-            if (tempNode.checkIfTabu()) tempNode.winCount = 0;
+            tempNode = --pathIndex >= 0 ? worker.path[pathIndex] : NodePool.NONE;
+        }
+    }
 
-            tempNode = tempNode.parent;
+    /**
+     * Adds the playouts to the AMAF statistics of every child of node whose move is in played.
+     * @param played: Pits played below node, bit i for pit i.
+     */
+    private void updateAmaf(int node, long played, int visits, double wins) {
+        for (int edge = pool.firstEdge(node); edge != NodePool.NONE; edge = pool.nextEdge(edge)) {
+            if ((played & moveBit(pool.move(edge))) != 0) pool.addAmaf(pool.child(edge), visits, wins);
         }
     }
 
+    private static long moveBit(int pit) {
+        return pit == NodePool.NONE ? 0 : 1L << pit;
+    }
+
     /**
      * Extends checkIfPlayerWins() with additional win conditions:
      * Game ends if either depot has more than half of the available stones,
@@ -443,21 +1549,49 @@ public class MagicBeansAgent implements MancalaAgent {
         return winState;
     }
     // booleans for ease of use.
-    private boolean gameOver(MancalaGame game) {
-        return getWinner(game).getState() == WinState.States.SOMEONE;
-    }
-    private boolean gameOver(Node node) {return node.winState.getState() == WinState.States.SOMEONE;}
+    private boolean gameOver(int node) {return pool.hasFlag(node, NodePool.GAME_OVER);}
 
-    //
-    private boolean inTime(){
-        return (System.currentTimeMillis() - STARTTIME) < (COMPUTATIONTIME*1000 - 600);
-    }
-    private boolean inTime(double percent){ // Allows us to use strategies depending on remaining runtime
-        return (System.currentTimeMillis() - STARTTIME) < percent*(COMPUTATIONTIME*1000 - 600);
+
+    /**
+     * Adapts the turn's deadline to the root statistics. Stops the search once the move is decided, i.e. the most
+     * visited child is also the one that will be played and either the runner-up cannot catch up until the
+     * deadline or it dominates the visits. Extends the search to the hard deadline for critical positions, where the
+     * move to play is not the most visited one or the two most visited children are close.
+     * @param root: Root of the search.
+     * @param progress: Elapsed share of the time until the current deadline.
+     */
+    private void manageTime(int root, double progress) {
+        int bestEdge = NodePool.NONE;
+        int bestVisits = 0;
+        int secondVisits = 0;
+        long childVisits = 0;
+        for (int edge = pool.firstEdge(root); edge != NodePool.NONE; edge = pool.nextEdge(edge)) {
+            int visits = pool.visits(pool.child(edge));
+            childVisits += visits;
+            if (bestEdge == NodePool.NONE || visits > bestVisits) {
+                secondVisits = bestVisits;
+                bestVisits = visits;
+                bestEdge = edge;
+            } else if (visits > secondVisits) {
+                secondVisits = visits;
+            }
+        }
+        if (bestEdge == NodePool.NONE || pool.expandable(root)) return;
+
+        boolean agrees = getChildWithBestScore(root, DEFAULT_C, false, false, true) == bestEdge;
+        long gained = pool.visits(root) - turnRootVisits;
+        double remainingVisits = gained * (double) time.remainingNanos() / Math.max(1, time.elapsedNanos());
+        if (playoutBudget > 0) remainingVisits = Math.min(remainingVisits, playoutBudget - gained);
+        if (agrees && (bestVisits - secondVisits > remainingVisits
+                || (progress >= 0.25 && bestVisits >= DOMINANCE * childVisits))) {
+            time.stop();
+        } else if (progress >= 0.8 && (!agrees || bestVisits - secondVisits < CRITICAL_GAP * childVisits)) {
+            time.extend();
+        }
     }
 
 
-    // Helper functions for loading old node
+    // Helper functions for printing games
     public String getGameBoardString(MancalaGame game) {
         StringBuilder output = new StringBuilder("");
         int max_slot = Integer.parseInt(game.getBoard().getDepotOfPlayer(0)) * 2 - 2;
@@ -466,19 +1600,6 @@ public class MagicBeansAgent implements MancalaAgent {
         }
         return output.toString();
     }
-    private boolean compareGames(MancalaGame gameA, MancalaGame gameB) {
-        return getGameBoardString(gameA).equals(getGameBoardString(gameB)) &&
-                gameA.getState().getCurrentPlayer() == gameB.getState().getCurrentPlayer();
-    }
-    private Node getMatchingNode(MancalaGame current, Node lastWinner) {
-        if (compareGames(current, lastWinner.game)) return lastWinner;
-
-        for (Node child : lastWinner.children) {
-            if (compareGames(current, child.game)) return child;
-            else if (child.game.getState().getCurrentPlayer() != MY_ID) return getMatchingNode(current, child);
-        }
-        return null;
-    }
 
     public void prettyPrintBoard(MancalaGame game) {
         // slot id count clockwise starting with depot left
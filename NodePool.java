@@ -0,0 +1,428 @@
+package at.magicbeansagent;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Preallocated store for the search tree. A node is an index into primitive arrays holding its statistics, flags,
+ * Zobrist hash, move masks and first outgoing edge; edges hold the child index, the next sibling edge and the move.
+ * Transpositions share a node, so a node can be the child of several edges. Positions are not stored: the searcher
+ * replays the edge moves from the root.
+ *
+ * Wins are fixed-point numbers with WIN_SCALE units per win, so playouts cut off by a static evaluation can back
+ * up fractional results. Optionally, every node also keeps all-moves-as-first (AMAF) statistics: the playouts
+ * through any parent in which the move leading to the node was played later on. Statistics, flags and expansion are
+ * updated lock-free, so several workers can share one pool.
+ * Nodes survive across turns; compact() drops everything that is no longer reachable from the new root. When the
+ * pool runs full during a search, prune() collapses rarely visited and decided subtrees into their top node.
+ */
+public final class NodePool {
+    public static final int NONE = -1;
+
+    /// Node flags
+    // True if the outcome with perfect play is known: game over, solved endgame, or decided by the children.
+    public static final byte PROVEN = 1;
+    // Together with PROVEN: the agent wins, or loses. PROVEN alone is a draw.
+    public static final byte PROVEN_WIN = 2;
+    public static final byte PROVEN_LOSS = 4;
+    // True if node is enemy's move.
+    public static final byte ENEMY_MOVE = 8;
+    // True if someone has won in this position.
+    public static final byte GAME_OVER = 16;
+
+    // Fixed-point units per win
+    private static final long WIN_SCALE = 1 << 16;
+
+    private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class);
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle BYTES = MethodHandles.arrayElementVarHandle(byte[].class);
+
+    private final int nodeCapacity;
+    private final int edgeCapacity;
+
+    // Nodes
+    private final int[] visits;
+    private final long[] wins;
+    private final byte[] flags;
+    // Low 16 bits: legal moves, high 16 bits: expanded moves. Bit i is the i^th pit of the player to move.
+    private final int[] moves;
+    private final long[] hashes;
+    private final int[] firstEdge;
+    // AMAF statistics, or null if disabled
+    private final int[] amafVisits;
+    private final long[] amafWins;
+
+    // Edges
+    private final int[] edgeChild;
+    private final int[] edgeNext;
+    private final byte[] edgeMove;
+
+    // Scratch space for compact()
+    private final int[] nodeRemap;
+    private final int[] edgeRemap;
+
+    private final AtomicInteger nodeCount = new AtomicInteger();
+    private final AtomicInteger edgeCount = new AtomicInteger();
+
+    /**
+     * @param nodeCapacity: Maximum number of nodes.
+     * @param edgeCapacity: Maximum number of edges, at least nodeCapacity since transpositions add edges but no nodes.
+     * @param amaf: If true, nodes keep AMAF statistics.
+     */
+    public NodePool(int nodeCapacity, int edgeCapacity, boolean amaf) {
+        this.nodeCapacity = nodeCapacity;
+        this.edgeCapacity = Math.max(nodeCapacity, edgeCapacity);
+        this.visits = new int[nodeCapacity];
+        this.wins = new long[nodeCapacity];
+        this.flags = new byte[nodeCapacity];
+        this.moves = new int[nodeCapacity];
+        this.hashes = new long[nodeCapacity];
+        this.firstEdge = new int[nodeCapacity];
+        this.amafVisits = amaf ? new int[nodeCapacity] : null;
+        this.amafWins = amaf ? new long[nodeCapacity] : null;
+        this.edgeChild = new int[this.edgeCapacity];
+        this.edgeNext = new int[this.edgeCapacity];
+        this.edgeMove = new byte[this.edgeCapacity];
+        this.nodeRemap = new int[nodeCapacity];
+        this.edgeRemap = new int[this.edgeCapacity];
+    }
+
+    private static final int NODE_BYTES = 4 + 8 + 1 + 4 + 8 + 4 + 4;
+    private static final int AMAF_BYTES = 4 + 8;
+    private static final int EDGE_BYTES = 4 + 4 + 1 + 4;
+
+    /**
+     * @return Heap bytes used per node slot, edges and compaction scratch space included.
+     */
+    public double bytesPerNode() {
+        long nodeBytes = (long) nodeCapacity * (amafVisits == null ? NODE_BYTES : NODE_BYTES + AMAF_BYTES);
+        long edgeBytes = (long) edgeCapacity * EDGE_BYTES;
+        return (double) (nodeBytes + edgeBytes) / nodeCapacity;
+    }
+
+    /**
+     * @param bytes: Heap budget of the pool.
+     * @param edgesPerNode: Ratio of edge capacity to node capacity, at least 1.
+     * @param amaf: If true, nodes keep AMAF statistics.
+     * @return Node capacity of a pool that fits into the budget.
+     */
+    public static int capacityFor(long bytes, double edgesPerNode, boolean amaf) {
+        double perNode = (amaf ? NODE_BYTES + AMAF_BYTES : NODE_BYTES) + Math.max(1., edgesPerNode) * EDGE_BYTES;
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE - 8, bytes / perNode));
+    }
+
+    public int capacity() {return nodeCapacity;}
+    public int nodeCount() {return Math.min(nodeCount.get(), nodeCapacity);}
+    public int edgeCount() {return Math.min(edgeCount.get(), edgeCapacity);}
+
+    /**
+     * @return True if more than the given share of nodes or edges is in use.
+     */
+    public boolean usageAbove(double share) {
+        return nodeCount() > share * nodeCapacity || edgeCount() > share * edgeCapacity;
+    }
+
+    public void clear() {
+        nodeCount.set(0);
+        edgeCount.set(0);
+    }
+
+
+    /// Allocation
+    /**
+     * Allocates a node without children.
+     * @param hash: Zobrist hash of the node's position.
+     * @param legalMask: Legal moves of the player to move.
+     * @param nodeFlags: Initial flags.
+     * @return Index of the new node, or NONE if the pool is full.
+     */
+    public int allocate(long hash, int legalMask, byte nodeFlags) {
+        if (nodeCount.get() >= nodeCapacity) return NONE;
+        int node = nodeCount.getAndIncrement();
+        if (node >= nodeCapacity) return NONE;
+        visits[node] = 0;
+        wins[node] = 0;
+        if (amafVisits != null) {
+            amafVisits[node] = 0;
+            amafWins[node] = 0;
+        }
+        flags[node] = nodeFlags;
+        moves[node] = legalMask & 0xFFFF;
+        hashes[node] = hash;
+        INTS.setRelease(firstEdge, node, NONE);
+        return node;
+    }
+
+    /**
+     * Claims the k^th legal move that is not expanded yet.
+     * @param node: Node to expand.
+     * @param k: Index among the remaining moves, clamped to the last one.
+     * @return Offset of the move within the player's pits, or NONE if the node is fully expanded.
+     */
+    public int claimMove(int node, int k) {
+        while (true) {
+            int current = (int) INTS.getVolatile(moves, node);
+            int untried = (current & ~(current >>> 16)) & 0xFFFF;
+            if (untried == 0) return NONE;
+            for (int i = Math.min(k, Integer.bitCount(untried) - 1); i > 0; i--) untried &= untried - 1;
+            int offset = Integer.numberOfTrailingZeros(untried);
+            if (INTS.compareAndSet(moves, node, current, current | (1 << (offset + 16)))) return offset;
+        }
+    }
+
+    /**
+     * Gives back a move claimed by claimMove() that could not be expanded.
+     */
+    public void releaseMove(int node, int offset) {
+        INTS.getAndBitwiseAnd(moves, node, ~(1 << (offset + 16)));
+    }
+
+    /**
+     * Adds an edge from parent to child.
+     * @param move: Pit played on this edge.
+     * @return Index of the new edge, or NONE if the pool is full.
+     */
+    public int addEdge(int parent, int child, int move) {
+        if (edgeCount.get() >= edgeCapacity) return NONE;
+        int edge = edgeCount.getAndIncrement();
+        if (edge >= edgeCapacity) return NONE;
+        edgeChild[edge] = child;
+        edgeMove[edge] = (byte) move;
+        int head;
+        do {
+            head = (int) INTS.getVolatile(firstEdge, parent);
+            edgeNext[edge] = head;
+        } while (!INTS.compareAndSet(firstEdge, parent, head, edge));
+        return edge;
+    }
+
+
+    /// Node access
+    public int visits(int node) {return visits[node];}
+    public double wins(int node) {return (double) wins[node] / WIN_SCALE;}
+    public long hash(int node) {return hashes[node];}
+    public void addVisits(int node, int delta) {INTS.getAndAdd(visits, node, delta);}
+    public void addWins(int node, int delta) {LONGS.getAndAdd(wins, node, delta * WIN_SCALE);}
+    public void addWins(int node, double delta) {LONGS.getAndAdd(wins, node, Math.round(delta * WIN_SCALE));}
+    public void removeWin(int node) {
+        long current;
+        do {
+            current = (long) LONGS.getVolatile(wins, node);
+        } while (current > 0 && !LONGS.compareAndSet(wins, node, current, Math.max(0, current - WIN_SCALE)));
+    }
+
+    public boolean hasAmaf() {return amafVisits != null;}
+    public int amafVisits(int node) {return amafVisits[node];}
+    public double amafWins(int node) {return (double) amafWins[node] / WIN_SCALE;}
+    public void addAmaf(int node, int visits, double wins) {
+        INTS.getAndAdd(amafVisits, node, visits);
+        LONGS.getAndAdd(amafWins, node, Math.round(wins * WIN_SCALE));
+    }
+
+    public boolean hasFlag(int node, byte flag) {return ((byte) BYTES.getOpaque(flags, node) & flag) != 0;}
+    public void setFlag(int node, byte flag) {BYTES.getAndBitwiseOr(flags, node, flag);}
+
+    public boolean expandable(int node) {
+        int current = (int) INTS.getOpaque(moves, node);
+        return ((current & ~(current >>> 16)) & 0xFFFF) != 0;
+    }
+    public int untriedCount(int node) {
+        int current = (int) INTS.getOpaque(moves, node);
+        return Integer.bitCount((current & ~(current >>> 16)) & 0xFFFF);
+    }
+    public int childCount(int node) {return Integer.bitCount((int) INTS.getOpaque(moves, node) >>> 16);}
+
+    /// Edge access
+    public int firstEdge(int node) {return (int) INTS.getAcquire(firstEdge, node);}
+    public int nextEdge(int edge) {return edgeNext[edge];}
+    public int child(int edge) {return edgeChild[edge];}
+    public int move(int edge) {return edgeMove[edge];}
+
+
+    /// Reuse across turns
+    /**
+     * Keeps only the nodes reachable from root and moves them to the front of the pool. Not thread-safe: no worker
+     * may run during compaction.
+     * @param root: Root of the next search.
+     * @param table: Transposition table, rebuilt with the remaining nodes.
+     * @return New index of root.
+     */
+    public int compact(int root, TranspositionTable table) {
+        mark(root, 0, 1.);
+        return relocate(root, table);
+    }
+
+    /**
+     * Collapses subtrees until at most the given share of nodes and edges is in use, then compacts the pool. A
+     * collapsed node loses its children but keeps its statistics and flags, and becomes expandable again, so the
+     * search can grow the subtree anew if it turns out to matter. Collapsed are the PROVEN nodes, which the search
+     * does not enter anymore, and the nodes below a visit threshold, which is doubled until enough space is freed.
+     * A node proven to win for its player to move keeps the edge to a winning child and its expanded moves, so the
+     * winning line survives if it becomes the root. The root is never collapsed. Not thread-safe: no worker may run
+     * during pruning.
+     * @param root: Root of the search.
+     * @param share: Share of nodes and edges that may stay in use.
+     * @param table: Transposition table, rebuilt with the remaining nodes.
+     * @return New index of root.
+     */
+    public int prune(int root, double share, TranspositionTable table) {
+        int minVisits = 2;
+        while (!mark(root, minVisits, share) && minVisits <= visits[root]) minVisits *= 2;
+        return relocate(root, table);
+    }
+
+    /**
+     * Counts the nodes reachable from root, e.g. those that a search on root reuses from earlier turns. Not
+     * thread-safe: no worker may run.
+     */
+    public int reachable(int root) {
+        return markNodes(root, 0);
+    }
+
+    /**
+     * Marks the nodes reachable from root in nodeRemap and the edges that stay in edgeRemap. With minVisits > 0,
+     * nodes below root with fewer visits or a PROVEN value keep none of their edges but their proofEdge().
+     * @return True if at most the given share of nodes and edges remains.
+     */
+    private boolean mark(int root, int minVisits, double share) {
+        int nodes = nodeCount();
+        int edges = edgeCount();
+        int keptNodes = markNodes(root, minVisits);
+
+        // Mark edges of reachable nodes that are not collapsed.
+        for (int i = 0; i < edges; i++) edgeRemap[i] = NONE;
+        int keptEdges = 0;
+        for (int node = 0; node < nodes; node++) {
+            if (nodeRemap[node] == NONE) continue;
+            if (collapses(node, root, minVisits)) {
+                int proof = proofEdge(node);
+                if (proof != NONE) {
+                    edgeRemap[proof] = 0;
+                    keptEdges++;
+                }
+                continue;
+            }
+            for (int edge = firstEdge[node]; edge != NONE; edge = edgeNext[edge]) {
+                edgeRemap[edge] = 0;
+                keptEdges++;
+            }
+        }
+        return keptNodes <= share * nodeCapacity && keptEdges <= share * edgeCapacity;
+    }
+
+    /**
+     * Marks the nodes reachable from root in nodeRemap, using edgeRemap as DFS stack. Below a node that collapses
+     * (see mark()), only its proofEdge() is followed.
+     * @return Number of marked nodes.
+     */
+    private int markNodes(int root, int minVisits) {
+        int nodes = nodeCount();
+        for (int i = 0; i < nodes; i++) nodeRemap[i] = NONE;
+        int[] stack = edgeRemap;
+        int top = 0;
+        stack[top++] = root;
+        nodeRemap[root] = 0;
+        int keptNodes = 1;
+        while (top > 0) {
+            int node = stack[--top];
+            // A collapsed node only keeps its proof edge, if any.
+            boolean collapsed = collapses(node, root, minVisits);
+            int edge = collapsed ? proofEdge(node) : firstEdge[node];
+            for (; edge != NONE; edge = collapsed ? NONE : edgeNext[edge]) {
+                int child = edgeChild[edge];
+                if (nodeRemap[child] == NONE) {
+                    nodeRemap[child] = 0;
+                    stack[top++] = child;
+                    keptNodes++;
+                }
+            }
+        }
+        return keptNodes;
+    }
+
+    private boolean collapses(int node, int root, int minVisits) {
+        return minVisits > 0 && node != root && (visits[node] < minVisits || (flags[node] & PROVEN) != 0);
+    }
+
+    /**
+     * @return Edge to a child that is proven to win for the player to move at node, if node is proven to win for
+     *         them, otherwise NONE.
+     */
+    private int proofEdge(int node) {
+        byte win = (byte) (PROVEN | ((flags[node] & ENEMY_MOVE) != 0 ? PROVEN_LOSS : PROVEN_WIN));
+        if ((flags[node] & win) != win) return NONE;
+        for (int edge = firstEdge[node]; edge != NONE; edge = edgeNext[edge]) {
+            if ((flags[edgeChild[edge]] & win) == win) return edge;
+        }
+        return NONE;
+    }
+
+    /**
+     * Moves the nodes and edges marked by mark() to the front of the pool. Nodes and edges keep their relative
+     * order, so everything can be moved in place. Nodes whose edges were all dropped become unexpanded leaves.
+     * @return New index of root.
+     */
+    private int relocate(int root, TranspositionTable table) {
+        int nodes = nodeCount();
+        int edges = edgeCount();
+
+        // Unlink dropped edges from the edge lists of the remaining nodes, before anything is overwritten.
+        for (int node = 0; node < nodes; node++) {
+            if (nodeRemap[node] == NONE || firstEdge[node] == NONE) continue;
+            int last = NONE;
+            for (int edge = firstEdge[node]; edge != NONE; edge = edgeNext[edge]) {
+                if (edgeRemap[edge] == NONE) continue;
+                if (last == NONE) firstEdge[node] = edge;
+                else edgeNext[last] = edge;
+                last = edge;
+            }
+            if (last == NONE) {
+                moves[node] &= 0xFFFF;      // collapsed: all moves untried again
+                firstEdge[node] = NONE;
+            } else {
+                edgeNext[last] = NONE;
+            }
+        }
+
+        // Assign new indices in ascending order.
+        int newNodes = 0;
+        for (int node = 0; node < nodes; node++) {
+            if (nodeRemap[node] != NONE) nodeRemap[node] = newNodes++;
+        }
+        int newEdges = 0;
+        for (int edge = 0; edge < edges; edge++) {
+            if (edgeRemap[edge] != NONE) edgeRemap[edge] = newEdges++;
+        }
+
+        // Move in place, new index <= old index.
+        for (int node = 0; node < nodes; node++) {
+            int target = nodeRemap[node];
+            if (target == NONE) continue;
+            visits[target] = visits[node];
+            wins[target] = wins[node];
+            if (amafVisits != null) {
+                amafVisits[target] = amafVisits[node];
+                amafWins[target] = amafWins[node];
+            }
+            flags[target] = flags[node];
+            moves[target] = moves[node];
+            hashes[target] = hashes[node];
+            firstEdge[target] = firstEdge[node] == NONE ? NONE : edgeRemap[firstEdge[node]];
+        }
+        for (int edge = 0; edge < edges; edge++) {
+            int target = edgeRemap[edge];
+            if (target == NONE) continue;
+            edgeChild[target] = nodeRemap[edgeChild[edge]];
+            edgeNext[target] = edgeNext[edge] == NONE ? NONE : edgeRemap[edgeNext[edge]];
+            edgeMove[target] = edgeMove[edge];
+        }
+        int newRoot = nodeRemap[root];
+
+        nodeCount.set(newNodes);
+        edgeCount.set(newEdges);
+        table.clear();
+        for (int node = 0; node < newNodes; node++) table.putIfAbsent(hashes[node], node);
+        return newRoot;
+    }
+}
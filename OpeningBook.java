@@ -0,0 +1,219 @@
+package at.magicbeansagent;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Searched opening positions for one board configuration (slots per player and stones per slot), keyed by Zobrist
+ * hash. Every entry holds the playout statistics of the position and, for positions that were searched themselves,
+ * the best move. Moves are stored as offsets within the pits of the player to move, so the book does not depend on
+ * the sowing direction. Tree snapshots (see MagicBeansAgent.saveSnapshot()) use the same format without moves.
+ *
+ * File format: magic, version, slots per player, stones per slot and capacity as ints, followed by an open
+ * addressing table of capacity entries (hash, visits, wins of player 0, move). A lookup hashes into the table and
+ * probes linearly; the file is memory-mapped.
+ */
+public final class OpeningBook {
+    public static final int NONE = -1;
+    private static final int MAGIC = 0x4D424F42;    // "MBOB"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 20;
+    private static final int ENTRY_BYTES = 8 + 4 + 4 + 1;
+
+    private final int n;
+    private final int stonesPerSlot;
+    private final int mask;
+    private final ByteBuffer buffer;
+
+    private OpeningBook(int n, int stonesPerSlot, int capacity, ByteBuffer buffer) {
+        this.n = n;
+        this.stonesPerSlot = stonesPerSlot;
+        this.mask = capacity - 1;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Maps a book file.
+     * @param file: A file written by build().
+     * @return The book.
+     * @throws IOException if the file cannot be read or is no book.
+     */
+    public static OpeningBook open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (channel.size() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not an opening book: " + file);
+            }
+            int capacity = buffer.getInt(16);
+            if (Integer.bitCount(capacity) != 1 || channel.size() != HEADER_BYTES + (long) capacity * ENTRY_BYTES) {
+                throw new IOException("Truncated opening book: " + file);
+            }
+            return new OpeningBook(buffer.getInt(8), buffer.getInt(12), capacity, buffer);
+        }
+    }
+
+    public int slots() {return n;}
+    public int stonesPerSlot() {return stonesPerSlot;}
+    // Entries are the slots of the table, empty ones have no visits.
+    public int capacity() {return mask + 1;}
+
+    /**
+     * @param hash: Zobrist hash of the position.
+     * @return Entry of the position, or NONE if it is not in the book.
+     */
+    public int find(long hash) {
+        for (int slot = bucketOf(hash); ; slot = (slot + 1) & mask) {
+            int offset = HEADER_BYTES + slot * ENTRY_BYTES;
+            if (buffer.getInt(offset + 8) == 0) return NONE;     // empty slots have no visits
+            if (buffer.getLong(offset) == hash) return slot;
+        }
+    }
+
+    public long hash(int entry) {return buffer.getLong(HEADER_BYTES + entry * ENTRY_BYTES);}
+    public int visits(int entry) {return buffer.getInt(HEADER_BYTES + entry * ENTRY_BYTES + 8);}
+
+    /**
+     * @return Playouts through the position won by player.
+     */
+    public int wins(int entry, int player) {
+        int wins = buffer.getInt(HEADER_BYTES + entry * ENTRY_BYTES + 12);
+        return player == 0 ? wins : visits(entry) - wins;
+    }
+
+    /**
+     * @return Best move as offset within the pits of the player to move, or NONE if the position was not searched.
+     */
+    public int move(int entry) {return buffer.get(HEADER_BYTES + entry * ENTRY_BYTES + 16);}
+
+    private int bucketOf(long hash) {
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+
+    /// Building
+    /**
+     * Searches every position up to the given number of plies from the start position, with either player to move
+     * first, and writes the book. Positions reached by several move orders are searched once. The statistics of
+     * the children of a searched position are kept as well, so the positions one ply beyond the book still get priors.
+     * The search uses the agent's configuration, e.g. magicbeans.threads for parallel searches.
+     * @param n: Slots per player.
+     * @param stonesPerSlot: Stones per slot at the start.
+     * @param plies: Number of moves, extra turns included, from the start position.
+     * @param seconds: Computation time per position.
+     * @param file: Output file.
+     * @throws IOException if the file cannot be written.
+     */
+    public static void build(int n, int stonesPerSlot, int plies, int seconds, Path file) throws IOException {
+        FastGame.Layout layout = FastGame.Layout.of(n);
+        int pointsToWin = n * stonesPerSlot;
+        Zobrist zobrist = new Zobrist(layout, 2 * pointsToWin);
+        MagicBeansAgent agent = new MagicBeansAgent();
+        Map<Long, long[]> entries = new LinkedHashMap<>();   // hash -> {visits, wins of player 0, move}
+
+        int[] start = new int[layout.size];
+        for (int player = 0; player < 2; player++) {
+            for (int i = 0; i < n; i++) start[layout.firstPit(player) + i] = stonesPerSlot;
+        }
+        Deque<FastGame> todo = new ArrayDeque<>();
+        Deque<Integer> depths = new ArrayDeque<>();
+        for (int player = 0; player < 2; player++) {
+            FastGame game = new FastGame(layout, pointsToWin);
+            game.load(start, player);
+            todo.add(game);
+            depths.add(0);
+        }
+
+        while (!todo.isEmpty()) {
+            FastGame game = todo.poll();
+            int depth = depths.poll();
+            long hash = zobrist.hash(game);
+            long[] known = entries.get(hash);
+            if ((known != null && known[2] != NONE) || game.winner() != FastGame.NONE) continue;
+
+            int player = game.getCurrentPlayer();
+            agent.prepareTurn(seconds, layout, pointsToWin, player);
+            int best = agent.search(agent.findRoot(game));
+            int root = agent.getSearchRoot();
+            NodePool pool = agent.getPool();
+            int move = pool.move(best) - layout.firstPit(player);
+            entries.put(hash, toEntry(pool.visits(root), pool.wins(root), player, move));
+            for (int edge = pool.firstEdge(root); edge != NodePool.NONE; edge = pool.nextEdge(edge)) {
+                int child = pool.child(edge);
+                entries.putIfAbsent(pool.hash(child), toEntry(pool.visits(child), pool.wins(child), player, NONE));
+            }
+            System.out.println(String.format("%d positions, depth %d: best move %d", entries.size(), depth, move));
+
+            if (depth + 1 >= plies) continue;
+            for (int pit = layout.firstPit(player); pit < layout.depot(player); pit++) {
+                if (game.stonesIn(pit) == 0) continue;
+                FastGame child = new FastGame(layout, pointsToWin);
+                child.copyFrom(game);
+                child.play(pit);
+                todo.add(child);
+                depths.add(depth + 1);
+            }
+        }
+        write(n, stonesPerSlot, entries, file);
+    }
+
+    // Node statistics are kept from the searching player's perspective, the book counts the wins of player 0.
+    static long[] toEntry(int visits, double wins, int player, int move) {
+        long rounded = Math.round(wins);
+        return new long[] {visits, player == 0 ? rounded : visits - rounded, move};
+    }
+
+    /**
+     * Writes entries to a temporary file that then replaces file, so a book or snapshot that is still mapped keeps
+     * its contents. Every call has its own temporary file, so concurrent writers do not mix their entries.
+     * @param entries: Hash -> {visits, wins of player 0, move or NONE}.
+     */
+    static void write(int n, int stonesPerSlot, Map<Long, long[]> entries, Path file) throws IOException {
+        int capacity = Integer.highestOneBit(Math.max(1, 2 * entries.size() - 1)) << 1;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + capacity * ENTRY_BYTES);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(stonesPerSlot).putInt(capacity);
+        OpeningBook book = new OpeningBook(n, stonesPerSlot, capacity, buffer);
+        for (Map.Entry<Long, long[]> entry : entries.entrySet()) {
+            long[] value = entry.getValue();
+            if (value[0] == 0) continue;
+            int slot = book.bucketOf(entry.getKey());
+            while (buffer.getInt(HEADER_BYTES + slot * ENTRY_BYTES + 8) != 0) slot = (slot + 1) & book.mask;
+            int offset = HEADER_BYTES + slot * ENTRY_BYTES;
+            buffer.putLong(offset, entry.getKey());
+            buffer.putInt(offset + 8, (int) value[0]);
+            buffer.putInt(offset + 12, (int) value[1]);
+            buffer.put(offset + 16, (byte) value[2]);
+        }
+        Path directory = file.toAbsolutePath().getParent();
+        Path temporary = Files.createTempFile(directory, file.getFileName() + ".", ".tmp");
+        try {
+            Files.write(temporary, buffer.array());
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+    }
+
+    /**
+     * Writes an opening book.
+     * Usage: OpeningBook slotsPerPlayer stonesPerSlot plies secondsPerPosition file
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 5) {
+            System.err.println("Usage: OpeningBook <slots per player> <stones per slot> <plies> <seconds per position> "
+                    + "<file>");
+            System.exit(1);
+        }
+        build(Integer.parseInt(args[0]), Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+                Integer.parseInt(args[3]), Path.of(args[4]));
+    }
+}
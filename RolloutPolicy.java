@@ -0,0 +1,121 @@
+package at.magicbeansagent;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Move choice and length of the playouts.
+ *
+ * The random policy plays uniformly random moves. The greedy policy plays a move that gives an extra turn if there
+ * is one, the one closest to the depot so the others stay available, otherwise the largest capture, otherwise a
+ * random move; with probability epsilon it plays a random move anyway. Both predictions come from the sowing tables
+ * of FastGame, without playing the moves.
+ *
+ * A playout ends with the game, or after depth moves with a static evaluation of the position. Immutable, so all
+ * workers share one policy.
+ */
+public final class RolloutPolicy {
+    // Slope of the evaluation: a lead of half the stones left in the pits is worth about 1 / (1 + e^-EVAL_SCALE).
+    private static final double EVAL_SCALE = 4.;
+    // Weight of the stones on a player's side relative to the stones in their depot.
+    private static final double SIDE_WEIGHT = 0.5;
+
+    private final boolean greedy;
+    private final double epsilon;
+    private final int depth;
+
+    /**
+     * @param greedy: If true, prefers extra turns and captures, otherwise plays uniformly random moves.
+     * @param epsilon: Probability of a random move for the greedy policy.
+     * @param depth: Moves after which a playout is evaluated statically, 0 to play until the game is over.
+     */
+    public RolloutPolicy(boolean greedy, double epsilon, int depth) {
+        this.greedy = greedy;
+        this.epsilon = epsilon;
+        this.depth = Math.max(0, depth);
+    }
+
+    /**
+     * Reads magicbeans.rollout.policy ("random" or "greedy"), magicbeans.rollout.epsilon and magicbeans.rollout.depth.
+     */
+    public static RolloutPolicy fromProperties() {
+        String policy = System.getProperty("magicbeans.rollout.policy", "greedy");
+        if (!policy.equals("random") && !policy.equals("greedy")) {
+            throw new IllegalArgumentException("Unknown rollout policy: " + policy);
+        }
+        return new RolloutPolicy(policy.equals("greedy"),
+                Double.parseDouble(System.getProperty("magicbeans.rollout.epsilon", "0.1")),
+                Integer.getInteger("magicbeans.rollout.depth", 16));
+    }
+
+    /**
+     * @return Moves after which a playout is evaluated statically, 0 if playouts run until the game is over.
+     */
+    public int depth() {return depth;}
+
+    public boolean isGreedy() {return greedy;}
+    public double epsilon() {return epsilon;}
+
+    /**
+     * @param board: Playout position.
+     * @param moveBuffer: Legal moves of the position.
+     * @param count: Number of legal moves, at least 1.
+     * @return Pit to play.
+     */
+    int chooseMove(FastGame board, int[] moveBuffer, int count, ThreadLocalRandom random) {
+        if (!greedy || random.nextDouble() < epsilon) return moveBuffer[random.nextInt(count)];
+        int pit = greedyMove(board, moveBuffer, count);
+        return pit != FastGame.NONE ? pit : moveBuffer[random.nextInt(count)];
+    }
+
+    /**
+     * The greedy choice without randomness.
+     * @param board: Playout position.
+     * @param moveBuffer: Legal moves of the position.
+     * @param count: Number of legal moves.
+     * @return The extra turn closest to the depot, otherwise the first of the largest captures, or FastGame.NONE if
+     *         no move gives either.
+     */
+    static int greedyMove(FastGame board, int[] moveBuffer, int count) {
+        // Moves are in ascending pit order, so the last extra turn found is the one closest to the depot.
+        int extraTurn = FastGame.NONE;
+        int bestCapture = FastGame.NONE;
+        int bestGain = 0;
+        for (int i = 0; i < count; i++) {
+            int pit = moveBuffer[i];
+            if (board.extraTurn(pit)) {
+                extraTurn = pit;
+            } else if (extraTurn == FastGame.NONE) {
+                int gain = board.capture(pit);
+                if (gain > bestGain) {
+                    bestGain = gain;
+                    bestCapture = pit;
+                }
+            }
+        }
+        return extraTurn != FastGame.NONE ? extraTurn : bestCapture;
+    }
+
+    /**
+     * Static evaluation of a running game: the lead in depot stones, plus half the lead in stones on the own side,
+     * relative to the stones that are still in play, mapped to a winning chance by a logistic function. A lead
+     * counts for more the fewer stones are left to catch up with.
+     * @param board: A position that is not over.
+     * @param player: Player whose chance is returned.
+     * @param pointsToWin: Half of all stones.
+     * @return Estimated chance of player to win, between 0 and 1.
+     */
+    static double evaluate(FastGame board, int player, int pointsToWin) {
+        FastGame.Layout layout = board.getLayout();
+        int ownSide = 0;
+        int enemySide = 0;
+        for (int i = 0; i < layout.n; i++) {
+            ownSide += board.stonesIn(layout.firstPit(player) + i);
+            enemySide += board.stonesIn(layout.firstPit(1 - player) + i);
+        }
+        int ownDepot = board.stonesIn(layout.depot(player));
+        int enemyDepot = board.stonesIn(layout.depot(1 - player));
+        double lead = ownDepot - enemyDepot + SIDE_WEIGHT * (ownSide - enemySide);
+        double inPlay = 2 * pointsToWin - ownDepot - enemyDepot;
+        return 1. / (1. + Math.exp(-EVAL_SCALE * lead / (inPlay / 2. + 1.)));
+    }
+}
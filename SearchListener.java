@@ -0,0 +1,13 @@
+package at.magicbeansagent;
+
+/**
+ * Receives the metrics of every searched turn. Called on the agent's thread right before doTurn() returns, so
+ * implementations should be quick.
+ */
+@FunctionalInterface
+public interface SearchListener {
+    /**
+     * @param metrics: Counters and timings of the turn that just finished.
+     */
+    void turnFinished(TurnMetrics metrics);
+}
@@ -0,0 +1,110 @@
+package at.magicbeansagent;
+
+/**
+ * Deadline of a single turn, measured on the monotonic clock.
+ *
+ * A turn first aims for a soft target, a share of the budget that is left after the safety margin. The searcher may
+ * extend the target to the full remaining budget (hard deadline) for critical positions, or stop early once the
+ * move is decided. The safety margin is calibrated from the measured tail latency, i.e. the time doTurn() still
+ * needs after the deadline has passed, and never exceeds the initial margin.
+ */
+public final class TimeManager {
+    // Margin used until enough turns are measured, and upper bound of the calibrated margin.
+    private final long initialMarginNanos;
+    private final long minMarginNanos;
+    // Share of the available time a normal turn aims for.
+    private final double targetShare;
+
+    // Tail latency of the last TAIL_SAMPLES turns
+    private static final int TAIL_SAMPLES = 16;
+    private static final int MIN_TAIL_SAMPLES = 3;
+    private static final int TAIL_FACTOR = 4;
+    private final long[] tails = new long[TAIL_SAMPLES];
+    private int tailCount = 0;
+
+    private long startNanos = 0;
+    private long marginNanos;
+    private long hardDeadlineNanos = 0;
+    // Current deadline, moved by extend() and stop() while workers are reading it.
+    private volatile long deadlineNanos = 0;
+    // True if the turn was stopped before its deadline.
+    private boolean stopped = false;
+
+    /**
+     * @param initialMarginMillis: Safety margin before calibration, and its upper bound.
+     * @param minMarginMillis: Lower bound of the calibrated margin.
+     * @param targetShare: Share of the available time a normal turn aims for, between 0 and 1.
+     */
+    public TimeManager(long initialMarginMillis, long minMarginMillis, double targetShare) {
+        this.initialMarginNanos = initialMarginMillis * 1_000_000;
+        this.minMarginNanos = Math.min(minMarginMillis, initialMarginMillis) * 1_000_000;
+        this.targetShare = Math.max(0., Math.min(1., targetShare));
+        this.marginNanos = initialMarginNanos;
+    }
+
+    /**
+     * Starts the clock of a new turn.
+     * @param budgetMillis: Time available for the whole turn.
+     */
+    public void start(long budgetMillis) {
+        startNanos = System.nanoTime();
+        marginNanos = calibratedMargin();
+        long available = Math.max(0, budgetMillis * 1_000_000 - marginNanos);
+        hardDeadlineNanos = startNanos + available;
+        deadlineNanos = startNanos + (long) (targetShare * available);
+        stopped = false;
+    }
+
+    /**
+     * Ends the turn and records how long it took after the deadline. Only turns whose search ran into the deadline
+     * are measured: a turn that stopped early (stop(), a proven root or a playout budget) has no tail to measure.
+     */
+    public void finish() {
+        long now = System.nanoTime();
+        if (stopped || now < deadlineNanos) return;
+        tails[tailCount++ % TAIL_SAMPLES] = now - deadlineNanos;
+    }
+
+    public boolean inTime() {
+        return System.nanoTime() < deadlineNanos;
+    }
+
+    /**
+     * @return Elapsed share of the time until the current deadline, 1 or more once it has passed.
+     */
+    public double progress() {
+        long target = deadlineNanos - startNanos;
+        return target <= 0 ? 1. : (double) (System.nanoTime() - startNanos) / target;
+    }
+
+    /**
+     * Moves the deadline to the hard deadline.
+     * @return False if the deadline was already extended or stopped.
+     */
+    public boolean extend() {
+        if (deadlineNanos >= hardDeadlineNanos) return false;
+        deadlineNanos = hardDeadlineNanos;
+        return true;
+    }
+
+    /**
+     * Moves the deadline to now, e.g. because the move is decided.
+     */
+    public void stop() {
+        stopped = true;
+        deadlineNanos = Math.min(deadlineNanos, System.nanoTime());
+        hardDeadlineNanos = deadlineNanos;
+    }
+
+    public long elapsedMillis() {return (System.nanoTime() - startNanos) / 1_000_000;}
+    public long remainingNanos() {return Math.max(0, deadlineNanos - System.nanoTime());}
+    public long elapsedNanos() {return System.nanoTime() - startNanos;}
+    public long marginMillis() {return marginNanos / 1_000_000;}
+
+    private long calibratedMargin() {
+        if (tailCount < MIN_TAIL_SAMPLES) return initialMarginNanos;
+        long maxTail = 0;
+        for (int i = 0; i < Math.min(tailCount, TAIL_SAMPLES); i++) maxTail = Math.max(maxTail, tails[i]);
+        return Math.max(minMarginNanos, Math.min(initialMarginNanos, TAIL_FACTOR * maxTail));
+    }
+}
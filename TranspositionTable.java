@@ -0,0 +1,109 @@
+package at.magicbeansagent;
+
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Bounded hash table from Zobrist hash to node index. Entries live in buckets of BUCKET_SIZE slots; when a bucket
+ * is full, the entry with the lowest weight (e.g. visit count) is replaced. Evicted nodes are only dropped from the
+ * table, they stay in the tree.
+ *
+ * Buckets are locked in stripes, so workers expanding different parts of the tree rarely wait for each other.
+ */
+public final class TranspositionTable {
+    public static final int NONE = -1;
+    private static final int BUCKET_SIZE = 4;
+    // Bucket b is guarded by locks[b & (STRIPES - 1)].
+    private static final int STRIPES = 1024;
+
+    private final long[] keys;
+    private final int[] values;
+    private final int mask;
+    private final IntUnaryOperator weight;
+    private final Object[] locks = new Object[STRIPES];
+
+    /**
+     * @param capacity: Maximum number of entries, rounded up to a power of two.
+     * @param weight: Replacement priority of a node index, entries with lower weight are evicted first.
+     */
+    public TranspositionTable(int capacity, IntUnaryOperator weight) {
+        int size = Integer.highestOneBit(Math.max(BUCKET_SIZE, capacity - 1)) << 1;
+        this.keys = new long[size];
+        this.values = new int[size];
+        this.mask = size - 1;
+        this.weight = weight;
+        Arrays.fill(values, NONE);
+        for (int i = 0; i < STRIPES; i++) locks[i] = new Object();
+    }
+
+    /**
+     * @return Heap bytes used per entry.
+     */
+    public static int bytesPerEntry() {
+        return 8 + 4;
+    }
+
+    /**
+     * @param key: Zobrist hash.
+     * @return The stored node index or NONE.
+     */
+    public int get(long key) {
+        int index = bucketOf(key);
+        synchronized (lockOf(index)) {
+            for (int slot = index; slot < index + BUCKET_SIZE; slot++) {
+                if (values[slot] != NONE && keys[slot] == key) return values[slot];
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Stores value unless the key is already present.
+     * @param key: Zobrist hash.
+     * @param value: Node index to store.
+     * @return The node index that is stored for key after the call.
+     */
+    public int putIfAbsent(long key, int value) {
+        int index = bucketOf(key);
+        synchronized (lockOf(index)) {
+            int victim = -1;
+            int victimWeight = Integer.MAX_VALUE;
+            for (int slot = index; slot < index + BUCKET_SIZE; slot++) {
+                if (values[slot] == NONE) {
+                    if (victimWeight != Integer.MIN_VALUE) {     // first free slot
+                        victim = slot;
+                        victimWeight = Integer.MIN_VALUE;
+                    }
+                    continue;
+                }
+                if (keys[slot] == key) return values[slot];
+                int slotWeight = weight.applyAsInt(values[slot]);
+                if (slotWeight < victimWeight) {
+                    victim = slot;
+                    victimWeight = slotWeight;
+                }
+            }
+            keys[victim] = key;
+            values[victim] = value;
+            return value;
+        }
+    }
+
+    /**
+     * Removes all entries. Not thread-safe: no worker may use the table meanwhile.
+     */
+    public void clear() {
+        Arrays.fill(values, NONE);
+    }
+
+    /**
+     * @return First slot of the key's bucket.
+     */
+    private int bucketOf(long key) {
+        return (int) (key ^ (key >>> 32)) & mask & -BUCKET_SIZE;
+    }
+
+    private Object lockOf(int index) {
+        return locks[(index / BUCKET_SIZE) & (STRIPES - 1)];
+    }
+}
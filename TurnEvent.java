@@ -0,0 +1,73 @@
+package at.magicbeansagent;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR export of TurnMetrics. Only committed while a flight recording has the event enabled.
+ */
+@Name("at.magicbeansagent.Turn")
+@Label("MCTS Turn")
+@Category("Magic Beans")
+@Description("Search metrics of one turn")
+final class TurnEvent extends Event {
+    @Label("Iterations")
+    long iterations;
+    @Label("Playouts")
+    long playouts;
+    @Label("Playouts per Second")
+    double playoutsPerSecond;
+    @Label("Allocated Nodes")
+    int allocatedNodes;
+    @Label("Reused Nodes")
+    int reusedNodes;
+    @Label("Pruned Nodes")
+    int prunedNodes;
+    @Label("Max Depth")
+    int maxDepth;
+    @Label("Mean Depth")
+    double meanDepth;
+    @Label("Select") @Timespan(Timespan.NANOSECONDS)
+    long selectTime;
+    @Label("Expand") @Timespan(Timespan.NANOSECONDS)
+    long expandTime;
+    @Label("Simulate") @Timespan(Timespan.NANOSECONDS)
+    long simulateTime;
+    @Label("Backpropagate") @Timespan(Timespan.NANOSECONDS)
+    long backPropagateTime;
+    @Label("Used") @Timespan(Timespan.MILLISECONDS)
+    long used;
+    @Label("Budget") @Timespan(Timespan.MILLISECONDS)
+    long budget;
+
+    static boolean enabled() {
+        return new TurnEvent().isEnabled();
+    }
+
+    /**
+     * Commits the metrics if the event is enabled.
+     */
+    static void commit(TurnMetrics metrics) {
+        TurnEvent event = new TurnEvent();
+        if (!event.isEnabled()) return;
+        event.iterations = metrics.getIterations();
+        event.playouts = metrics.getPlayouts();
+        event.playoutsPerSecond = metrics.getPlayoutsPerSecond();
+        event.allocatedNodes = metrics.getAllocatedNodes();
+        event.reusedNodes = metrics.getReusedNodes();
+        event.prunedNodes = metrics.getPrunedNodes();
+        event.maxDepth = metrics.getMaxDepth();
+        event.meanDepth = metrics.getMeanDepth();
+        event.selectTime = metrics.getPhaseNanos(TurnMetrics.SELECT);
+        event.expandTime = metrics.getPhaseNanos(TurnMetrics.EXPAND);
+        event.simulateTime = metrics.getPhaseNanos(TurnMetrics.SIMULATE);
+        event.backPropagateTime = metrics.getPhaseNanos(TurnMetrics.BACKPROPAGATE);
+        event.used = metrics.getUsedMillis();
+        event.budget = metrics.getBudgetMillis();
+        event.commit();
+    }
+}
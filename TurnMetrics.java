@@ -0,0 +1,113 @@
+package at.magicbeansagent;
+
+/**
+ * Counters and timings of a single turn. Workers count into their own fields during the search; the numbers are
+ * only summed up once the search is over.
+ *
+ * Phase times are summed over all workers, so with more than one thread they can exceed the search time.
+ */
+public final class TurnMetrics {
+    /// Search phases, index into the phase times
+    public static final int SELECT = 0;
+    public static final int EXPAND = 1;
+    public static final int SIMULATE = 2;
+    public static final int BACKPROPAGATE = 3;
+    static final int PHASES = 4;
+
+    private final long iterations;
+    private final long playouts;
+    private final long searchNanos;
+    private final int allocatedNodes;
+    private final int reusedNodes;
+    private final int prunedNodes;
+    private final int reusedVisits;
+    private final int maxDepth;
+    private final long depthSum;
+    private final long[] phaseNanos;
+    private final long usedMillis;
+    private final long budgetMillis;
+    private final long marginMillis;
+
+    TurnMetrics(long iterations, long playouts, long searchNanos, int allocatedNodes, int reusedNodes,
+                int prunedNodes, int reusedVisits, int maxDepth, long depthSum, long[] phaseNanos, long usedMillis,
+                long budgetMillis, long marginMillis) {
+        this.iterations = iterations;
+        this.playouts = playouts;
+        this.searchNanos = searchNanos;
+        this.allocatedNodes = allocatedNodes;
+        this.reusedNodes = reusedNodes;
+        this.prunedNodes = prunedNodes;
+        this.reusedVisits = reusedVisits;
+        this.maxDepth = maxDepth;
+        this.depthSum = depthSum;
+        this.phaseNanos = phaseNanos.clone();
+        this.usedMillis = usedMillis;
+        this.budgetMillis = budgetMillis;
+        this.marginMillis = marginMillis;
+    }
+
+    public long getIterations() {return iterations;}
+    public long getPlayouts() {return playouts;}
+    public long getSearchNanos() {return searchNanos;}
+    public double getPlayoutsPerSecond() {return searchNanos == 0 ? 0 : playouts * 1e9 / searchNanos;}
+
+    /**
+     * @return Nodes created during this turn.
+     */
+    public int getAllocatedNodes() {return allocatedNodes;}
+
+    /**
+     * @return Nodes kept from earlier turns and reachable from the root, 0 if the root was not found in the tree.
+     */
+    public int getReusedNodes() {return reusedNodes;}
+
+    /**
+     * @return Nodes freed by pruning when the pool ran full.
+     */
+    public int getPrunedNodes() {return prunedNodes;}
+
+    /**
+     * @return Visits the root already had when the search started.
+     */
+    public int getReusedVisits() {return reusedVisits;}
+
+    /**
+     * @return Number of edges on the longest selection path.
+     */
+    public int getMaxDepth() {return maxDepth;}
+    public double getMeanDepth() {return iterations == 0 ? 0 : (double) depthSum / iterations;}
+
+    /**
+     * @param phase: SELECT, EXPAND, SIMULATE or BACKPROPAGATE.
+     * @return Time spent in the phase, summed over all workers.
+     */
+    public long getPhaseNanos(int phase) {return phaseNanos[phase];}
+
+    /**
+     * @return Wall-clock time from the start of doTurn() until the move was chosen.
+     */
+    public long getUsedMillis() {return usedMillis;}
+    public long getBudgetMillis() {return budgetMillis;}
+
+    /**
+     * @return Safety margin the search keeps free of the budget.
+     */
+    public long getMarginMillis() {return marginMillis;}
+    public double getBudgetShare() {return budgetMillis == 0 ? 0 : (double) usedMillis / budgetMillis;}
+
+    /**
+     * @return Part of the safety margin that was left when the move was chosen, negative if the budget was exceeded.
+     */
+    public long getUnusedMarginMillis() {return Math.min(marginMillis, budgetMillis - usedMillis);}
+
+    @Override
+    public String toString() {
+        return String.format("%d iterations, %d playouts (%.0f/s), %d nodes allocated, %d reused (%d root visits), "
+                        + "%d pruned, depth max %d mean %.1f, select/expand/simulate/backprop %d/%d/%d/%d ms, "
+                        + "used %d of %d ms (%.0f%%), %d of %d ms margin left",
+                iterations, playouts, getPlayoutsPerSecond(), allocatedNodes, reusedNodes, reusedVisits, prunedNodes,
+                maxDepth, getMeanDepth(), phaseNanos[SELECT] / 1_000_000, phaseNanos[EXPAND] / 1_000_000,
+                phaseNanos[SIMULATE] / 1_000_000, phaseNanos[BACKPROPAGATE] / 1_000_000,
+                usedMillis, budgetMillis, 100 * getBudgetShare(), getUnusedMarginMillis(), marginMillis);
+    }
+}
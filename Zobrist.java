@@ -0,0 +1,54 @@
+package at.magicbeansagent;
+
+import java.util.Random;
+
+/**
+ * Zobrist keys for (board, player to move). A position's hash is the XOR of one random key per (pit, stone count)
+ * plus a key for player 1 to move; hash() computes it from the whole board.
+ * Keys are generated from a fixed seed and stay the same between runs.
+ */
+public final class Zobrist {
+    private static final long SEED = 0x6D616E63616C61L;
+
+    private final FastGame.Layout layout;
+    private final int maxStones;
+    // pitKeys[pit * (maxStones + 1) + stones]
+    private final long[] pitKeys;
+    private final long playerKey;
+
+    /**
+     * @param layout: Board layout.
+     * @param maxStones: Total number of stones in the game, i.e. the most a single pit can hold.
+     */
+    public Zobrist(FastGame.Layout layout, int maxStones) {
+        this.layout = layout;
+        this.maxStones = maxStones;
+        this.pitKeys = new long[layout.size * (maxStones + 1)];
+        Random random = new Random(SEED);
+        for (int i = 0; i < pitKeys.length; i++) pitKeys[i] = random.nextLong();
+        this.playerKey = random.nextLong();
+    }
+
+    public boolean matches(FastGame.Layout layout, int maxStones) {
+        return this.layout.matches(layout) && this.maxStones == maxStones;
+    }
+
+    public long pitKey(int pit, int stones) {
+        return pitKeys[pit * (maxStones + 1) + Math.min(stones, maxStones)];
+    }
+
+    public long playerKey(int player) {
+        return player == 1 ? playerKey : 0L;
+    }
+
+    /**
+     * Full hash of a FastGame.
+     * @param game: A FastGame with this key's layout.
+     * @return Zobrist hash of board and player to move.
+     */
+    public long hash(FastGame game) {
+        long hash = playerKey(game.getCurrentPlayer());
+        for (int pit = 0; pit < layout.size; pit++) hash ^= pitKey(pit, game.stonesIn(pit));
+        return hash;
+    }
+}
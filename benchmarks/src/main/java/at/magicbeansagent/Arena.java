@@ -0,0 +1,481 @@
+package at.magicbeansagent;
+
+import at.pwd.boardgame.game.base.WinState;
+import at.pwd.boardgame.game.mancala.MancalaGame;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Headless runner for large numbers of searches, without the game's GUI:
+ *
+ * match: plays games between the agent and a baseline on parallel threads, with a new agent for every game and side.
+ * Games come in pairs that start from the same seeded random opening with swapped sides. After every game, one line
+ * with the running score, its 95% confidence interval, the agent's playouts/sec and move latency percentiles is
+ * appended to the results file.
+ *
+ * analyze: searches every position of a file with a fixed budget and writes the move and the root statistics.
+ *
+ * Arguments are key=value pairs, see usage(). The per-move budget is a number of playouts on top of a time limit, so
+ * results do not depend on how many games share the machine.
+ */
+public final class Arena {
+    // z for a two-sided 95% interval
+    private static final double Z = 1.96;
+
+    private final Map<String, String> options;
+    // The agents print their decisions on System.out, the runner's own output goes here.
+    private final PrintStream console;
+
+    private Arena(Map<String, String> options, PrintStream console) {
+        this.options = options;
+        this.console = console;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0 || (!args[0].equals("match") && !args[0].equals("analyze"))) {
+            usage();
+            System.exit(1);
+        }
+        Map<String, String> options = new HashMap<>();
+        for (int i = 1; i < args.length; i++) {
+            int split = args[i].indexOf('=');
+            if (split <= 0) throw new IllegalArgumentException("Expected key=value: " + args[i]);
+            options.put(args[i].substring(0, split), args[i].substring(split + 1));
+        }
+        // Many agents live at the same time: smaller default pools, read when the agent class is initialized.
+        System.getProperties().putIfAbsent("magicbeans.pool.nodes", Integer.toString(1 << 17));
+        System.getProperties().putIfAbsent("magicbeans.tt.entries", Integer.toString(1 << 17));
+
+        Arena arena = new Arena(options, System.out);
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        if (args[0].equals("match")) arena.match();
+        else arena.analyze();
+    }
+
+    private static void usage() {
+        System.err.println("Usage: Arena match [games=100] [threads=<processors>] [slots=6] [stones=6] [plies=2]\n"
+                + "                   [seed=1] [seconds=10] [playouts=2000] [policy=..] [depth=..] [epsilon=..]\n"
+                + "                   [baseline=random|greedy|agent] [baseline.playouts=..] [baseline.policy=..]\n"
+                + "                   [baseline.depth=..] [baseline.epsilon=..] [out=arena.tsv]\n"
+                + "       Arena analyze positions=<file> [threads=<processors>] [seconds=10] [playouts=20000]\n"
+                + "                   [policy=..] [depth=..] [epsilon=..] [out=analysis.tsv]\n"
+                + "A position is one line: the player to move, then the stones of slot 1 to 2n+2.");
+    }
+
+
+    /// Options
+    private String string(String key, String fallback) {
+        return options.getOrDefault(key, fallback);
+    }
+
+    private int integer(String key, int fallback) {
+        return options.containsKey(key) ? Integer.parseInt(options.get(key)) : fallback;
+    }
+
+    /**
+     * @param prefix: "" for the agent, "baseline." for an agent baseline, which defaults to the agent's policy.
+     * @return Rollout policy from the options, defaults from the magicbeans.rollout properties.
+     */
+    private RolloutPolicy policy(String prefix) {
+        RolloutPolicy defaults = prefix.isEmpty() ? RolloutPolicy.fromProperties() : policy("");
+        String policy = string(prefix + "policy", string("policy", null));
+        if (policy != null && !policy.equals("random") && !policy.equals("greedy")) {
+            throw new IllegalArgumentException("Unknown rollout policy: " + policy);
+        }
+        boolean greedy = policy == null ? defaults.isGreedy() : policy.equals("greedy");
+        double epsilon = Double.parseDouble(string(prefix + "epsilon",
+                string("epsilon", Double.toString(defaults.epsilon()))));
+        int depth = integer(prefix + "depth", integer("depth", defaults.depth()));
+        return new RolloutPolicy(greedy, epsilon, depth);
+    }
+
+    /**
+     * @return A new agent with its own tree, limited to the given playouts per move.
+     */
+    private static MagicBeansAgent newAgent(RolloutPolicy policy, int playouts, Stats stats) {
+        MagicBeansAgent agent = new MagicBeansAgent();
+        agent.setRolloutPolicy(policy);
+        agent.setPlayoutBudget(playouts);
+        agent.setSearchListener(metrics -> stats.searched(metrics.getPlayouts(), metrics.getSearchNanos()));
+        return agent;
+    }
+
+
+    /// Match
+    /**
+     * Chooses the move of one side.
+     */
+    private interface Player {
+        String move(MancalaGame game);
+    }
+
+    private void match() throws IOException, InterruptedException, ExecutionException {
+        int games = integer("games", 100);
+        int threads = integer("threads", Runtime.getRuntime().availableProcessors());
+        int slots = integer("slots", 6);
+        int stones = integer("stones", 6);
+        int plies = integer("plies", 2);
+        long seed = integer("seed", 1);
+        int seconds = integer("seconds", 10);
+        int playouts = integer("playouts", 2000);
+        String baseline = string("baseline", "random");
+        int baselinePlayouts = integer("baseline.playouts", playouts);
+        RolloutPolicy policy = policy("");
+        RolloutPolicy baselinePolicy = policy("baseline.");
+        if (!baseline.equals("random") && !baseline.equals("greedy") && !baseline.equals("agent")) {
+            throw new IllegalArgumentException("Unknown baseline: " + baseline);
+        }
+
+        Path out = Paths.get(string("out", "arena.tsv"));
+        Stats stats = new Stats();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(out))) {
+            writer.println("game\tagent\tresult\tscore\tgames\tscore_rate\tci_low\tci_high\tplayouts_per_s"
+                    + "\tp50_ms\tp90_ms\tp99_ms\tmax_ms");
+            writer.flush();
+            List<Future<?>> running = new ArrayList<>();
+            for (int i = 0; i < games; i++) {
+                int index = i;
+                running.add(executor.submit(() -> {
+                    int agentId = index % 2;
+                    MancalaGame game = opening(slots, stones, plies, seed + index / 2);
+                    Player[] players = new Player[2];
+                    double result;
+                    // Closed after the game, so their threads do not pile up over the match.
+                    try (MagicBeansAgent agent = newAgent(policy, playouts, stats);
+                         MagicBeansAgent opponent = baseline.equals("agent")
+                                 ? newAgent(baselinePolicy, baselinePlayouts, new Stats()) : null) {
+                        players[agentId] = position -> agent.doTurn(seconds, position).getId();
+                        players[1 - agentId] = baseline(baseline, opponent, seconds);
+                        result = play(game, players, agentId, slots * stones, stats);
+                    }
+                    String line = stats.finished(index, agentId, result);
+                    synchronized (writer) {
+                        writer.println(line);
+                        writer.flush();
+                    }
+                    if ((index + 1) % Math.max(1, games / 20) == 0) console.println(line);
+                }));
+            }
+            for (Future<?> game : running) game.get();
+        } finally {
+            executor.shutdownNow();
+        }
+        console.println(String.format(Locale.ROOT, "%d games, score %.1f = %.3f [%.3f, %.3f], %.0f playouts/s, "
+                        + "latency p50 %.1f ms p90 %.1f ms p99 %.1f ms max %.1f ms, results in %s",
+                stats.games, stats.score, stats.rate(), stats.low(), stats.high(), stats.playoutsPerSecond(),
+                stats.latency.percentile(0.5), stats.latency.percentile(0.9), stats.latency.percentile(0.99),
+                stats.latency.max(), out));
+    }
+
+    /**
+     * @param agent: The baseline agent for "agent", otherwise unused.
+     */
+    private static Player baseline(String name, MagicBeansAgent agent, int seconds) {
+        switch (name) {
+            case "random":
+                return game -> {
+                    List<String> slots = game.getSelectableSlots();
+                    return slots.get(ThreadLocalRandom.current().nextInt(slots.size()));
+                };
+            case "greedy":
+                // One-ply greedy: the playout policy's move without randomness.
+                RolloutPolicy greedy = new RolloutPolicy(true, 0., 0);
+                return game -> {
+                    FastGame.Layout layout = FastGame.Layout.of(game);
+                    FastGame board = new FastGame(layout, game.getBoard().getStonesPerSlot() * layout.n);
+                    board.load(game);
+                    int[] moves = new int[layout.n];
+                    int count = board.legalMoves(moves);
+                    return layout.slotId(greedy.chooseMove(board, moves, count, ThreadLocalRandom.current()));
+                };
+            default:
+                return game -> agent.doTurn(seconds, game).getId();
+        }
+    }
+
+    /**
+     * Plays seeded random moves from the start, so both games of a pair begin in the same position.
+     */
+    private static MancalaGame opening(int slots, int stones, int plies, long seed) {
+        for (long attempt = seed; ; attempt += 1L << 32) {
+            Random random = new Random(attempt);
+            MancalaGame game = new MancalaGame(slots, stones);
+            int ply = 0;
+            while (ply < plies && winner(game, slots * stones) == FastGame.NONE) {
+                List<String> selectable = game.getSelectableSlots();
+                if (!game.selectSlot(selectable.get(random.nextInt(selectable.size())))) game.nextPlayer();
+                ply++;
+            }
+            if (winner(game, slots * stones) == FastGame.NONE) return game;
+        }
+    }
+
+    /**
+     * Plays a game to the end, timing the agent's moves.
+     * @param agentId: Player the agent plays.
+     * @param pointsToWin: Half of all stones.
+     * @return Score of the agent: 1 for a win, 0.5 for a draw, 0 for a loss.
+     */
+    private static double play(MancalaGame game, Player[] players, int agentId, int pointsToWin, Stats stats) {
+        int winner;
+        while ((winner = winner(game, pointsToWin)) == FastGame.NONE) {
+            int player = game.getState().getCurrentPlayer();
+            long start = System.nanoTime();
+            // A copy, since agents may keep the position of their turn.
+            String slot = players[player].move(new MancalaGame(game));
+            if (player == agentId) stats.moved(System.nanoTime() - start);
+            if (!game.selectSlot(slot)) game.nextPlayer();
+        }
+        return winner == FastGame.DRAW ? 0.5 : winner == agentId ? 1. : 0.;
+    }
+
+    /**
+     * @return Winner of the game, FastGame.DRAW, or FastGame.NONE if it is not decided yet. Like the agent, treats a
+     *         depot with more than half of all stones as won.
+     */
+    private static int winner(MancalaGame game, int pointsToWin) {
+        for (int id = 0; id < 2; id++) {
+            if (game.getState().stonesIn(game.getBoard().getDepotOfPlayer(id)) > pointsToWin) return id;
+        }
+        WinState state = game.checkIfPlayerWins();
+        switch (state.getState()) {
+            case SOMEONE: return state.getPlayerId();
+            case MULTIPLE: return FastGame.DRAW;
+            default: return FastGame.NONE;
+        }
+    }
+
+    /**
+     * Running results of a match, shared by all games.
+     */
+    private static final class Stats {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private long playouts = 0;
+        private long searchNanos = 0;
+        private int games = 0;
+        private double score = 0.;
+
+        synchronized void searched(long turnPlayouts, long turnNanos) {
+            playouts += turnPlayouts;
+            searchNanos += turnNanos;
+        }
+
+        synchronized void moved(long nanos) {
+            latency.add(nanos);
+        }
+
+        synchronized String finished(int index, int agentId, double result) {
+            games++;
+            score += result;
+            return String.format(Locale.ROOT, "%d\t%d\t%.1f\t%.1f\t%d\t%.4f\t%.4f\t%.4f\t%.0f\t%.2f\t%.2f\t%.2f\t%.2f",
+                    index, agentId, result, score, games, rate(), low(), high(), playoutsPerSecond(),
+                    latency.percentile(0.5), latency.percentile(0.9), latency.percentile(0.99), latency.max());
+        }
+
+        double rate() {return games == 0 ? 0. : score / games;}
+
+        // Wilson score interval, with draws as half a win. Unlike the normal approximation it stays within [0, 1]
+        // and is usable for the first few games.
+        double low() {return games == 0 ? 0. : center() - halfWidth();}
+        double high() {return games == 0 ? 1. : center() + halfWidth();}
+
+        private double center() {
+            return (rate() + Z * Z / (2. * games)) / (1. + Z * Z / games);
+        }
+
+        private double halfWidth() {
+            double p = rate();
+            return Z * Math.sqrt(p * (1. - p) / games + Z * Z / (4. * games * games)) / (1. + Z * Z / games);
+        }
+
+        double playoutsPerSecond() {return searchNanos == 0 ? 0. : playouts * 1e9 / searchNanos;}
+    }
+
+    /**
+     * Latencies in logarithmic buckets 1% apart, so percentiles of any number of moves take constant space.
+     */
+    private static final class LatencyHistogram {
+        private static final double BUCKETS_PER_E = 100.;
+        private final long[] counts = new long[(int) (Math.log(Long.MAX_VALUE) * BUCKETS_PER_E) + 1];
+        private long total = 0;
+        private long maxNanos = 0;
+
+        void add(long nanos) {
+            counts[(int) (Math.log(Math.max(1, nanos)) * BUCKETS_PER_E)]++;
+            total++;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        /**
+         * @param share: Between 0 and 1.
+         * @return Upper bound of the bucket holding the given share of the latencies, in ms.
+         */
+        double percentile(double share) {
+            long rank = (long) Math.ceil(share * total);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) return Math.min(maxNanos, Math.exp((i + 1) / BUCKETS_PER_E)) / 1e6;
+            }
+            return 0.;
+        }
+
+        double max() {return maxNanos / 1e6;}
+    }
+
+
+    /// Analysis
+    private void analyze() throws IOException, InterruptedException, ExecutionException {
+        String file = string("positions", null);
+        if (file == null) throw new IllegalArgumentException("analyze needs positions=<file>");
+        int threads = integer("threads", Runtime.getRuntime().availableProcessors());
+        int seconds = integer("seconds", 10);
+        int playouts = integer("playouts", 20000);
+        RolloutPolicy policy = policy("");
+
+        List<String> lines = Files.readAllLines(Paths.get(file));
+        Path out = Paths.get(string("out", "analysis.tsv"));
+        // One agent per thread, its tree is cleared before every position. All are closed at the end.
+        List<Analyst> created = new ArrayList<>();
+        ThreadLocal<Analyst> analysts = ThreadLocal.withInitial(() -> {
+            Analyst analyst = new Analyst(policy, playouts);
+            synchronized (created) {
+                created.add(analyst);
+            }
+            return analyst;
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        int count = 0;
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(out))) {
+            writer.println("line\tposition\tmove\tsearched\troot_visits\tmove_visits\tmove_win_rate\tplayouts"
+                    + "\tsearch_ms\tchildren");
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < lines.size(); i++) {
+                String line = lines.get(i).trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                int number = i + 1;
+                MancalaGame game = parse(line);     // fails before any search on a malformed line
+                results.add(executor.submit(() -> number + "\t" + line + "\t" + analysts.get().analyze(game, seconds)));
+            }
+            // Written in input order, each as soon as it and all before it are done.
+            for (Future<String> result : results) {
+                writer.println(result.get());
+                writer.flush();
+                count++;
+            }
+        } finally {
+            executor.shutdownNow();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+            synchronized (created) {
+                for (Analyst analyst : created) analyst.agent.close();
+            }
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        console.println(String.format(Locale.ROOT, "%d positions in %.1f s (%.1f positions/s), results in %s",
+                count, elapsed, count / elapsed, out));
+    }
+
+    /**
+     * Searches positions with its own agent.
+     */
+    private static final class Analyst {
+        private final MagicBeansAgent agent;
+        private final Stats stats = new Stats();
+
+        Analyst(RolloutPolicy policy, int playouts) {
+            this.agent = newAgent(policy, playouts, stats);
+        }
+
+        /**
+         * @param game: Position to search, parsed by parse().
+         * @return Tab separated move, whether it was searched, root statistics, playouts, search time and the
+         *         children as slot:visits:win rate, most visited first. Book, endgame and single moves are not
+         *         searched.
+         */
+        String analyze(MancalaGame game, int seconds) {
+            if (winner(game, game.getBoard().getStonesPerSlot() * slotsOf(game)) != FastGame.NONE
+                    || game.getSelectableSlots().isEmpty()) {
+                return "-\tover\t\t\t\t\t\t";
+            }
+            agent.clearTree();
+            long playoutsBefore = stats.playouts;
+            long nanosBefore = stats.searchNanos;
+            String move = agent.doTurn(seconds, game).getId();
+            if (stats.searchNanos == nanosBefore) return move + "\tfalse\t\t\t\t\t\t";
+
+            NodePool pool = agent.getPool();
+            int root = agent.getSearchRoot();
+            List<int[]> children = new ArrayList<>();
+            for (int edge = pool.firstEdge(root); edge != NodePool.NONE; edge = pool.nextEdge(edge)) {
+                children.add(new int[] {edge, pool.visits(pool.child(edge))});
+            }
+            children.sort((a, b) -> Integer.compare(b[1], a[1]));
+            FastGame.Layout layout = FastGame.Layout.of(game);
+            StringBuilder list = new StringBuilder();
+            int moveVisits = 0;
+            double moveRate = 0.;
+            for (int[] entry : children) {
+                int child = pool.child(entry[0]);
+                String slot = layout.slotId(pool.move(entry[0]));
+                double rate = pool.visits(child) == 0 ? 0. : pool.wins(child) / pool.visits(child);
+                if (slot.equals(move)) {
+                    moveVisits = pool.visits(child);
+                    moveRate = rate;
+                }
+                if (list.length() > 0) list.append(' ');
+                list.append(String.format(Locale.ROOT, "%s:%d:%.4f", slot, pool.visits(child), rate));
+            }
+            return String.format(Locale.ROOT, "%s\ttrue\t%d\t%d\t%.4f\t%d\t%.1f\t%s", move, pool.visits(root),
+                    moveVisits, moveRate, stats.playouts - playoutsBefore, (stats.searchNanos - nanosBefore) / 1e6,
+                    list);
+        }
+    }
+
+    private static int slotsOf(MancalaGame game) {
+        return Integer.parseInt(game.getBoard().getDepotOfPlayer(0)) - 2;
+    }
+
+    /**
+     * @param line: Player to move, then the stones of slot 1 to 2n+2, as printed by getGameBoardString().
+     * @return The position, on a board whose stones per slot are the total divided by the number of pits.
+     */
+    static MancalaGame parse(String line) {
+        String[] tokens = line.trim().split("\\s+");
+        int ids = tokens.length - 1;
+        if (ids < 4 || ids % 2 != 0) throw new IllegalArgumentException("Expected player and 2n+2 slots: " + line);
+        int slots = ids / 2 - 1;
+        int total = 0;
+        for (int i = 1; i < tokens.length; i++) total += Integer.parseInt(tokens[i]);
+        if (total % (2 * slots) != 0) {
+            throw new IllegalArgumentException("Stones are not a multiple of the number of pits: " + line);
+        }
+        MancalaGame game = new MancalaGame(slots, total / (2 * slots));
+        for (int id = 1; id <= ids; id++) {
+            String slot = Integer.toString(id);
+            game.getState().removeStones(slot);
+            game.getState().addStones(slot, Integer.parseInt(tokens[id]));
+        }
+        game.getState().setCurrentPlayer(Integer.parseInt(tokens[0]));
+        return game;
+    }
+}
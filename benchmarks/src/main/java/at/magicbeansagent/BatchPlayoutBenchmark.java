@@ -0,0 +1,151 @@
+package at.magicbeansagent;
+
+import at.pwd.boardgame.game.base.WinState;
+import at.pwd.boardgame.game.mancala.MancalaGame;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BATCH playouts from a fixed position per rollout backend, as playouts/sec of a single thread:
+ * "mancalagame" plays random moves on a MancalaGame copy (the playout loop before FastGame; the policy is ignored),
+ * "board" calls MagicBeansAgent.simulate() once per playout, "lockstep" and "vector" advance the whole batch together
+ * with LockstepPlayouts and VectorPlayouts. Cutoffs are scored by the static evaluation in every backend.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"--add-modules=jdk.incubator.vector", "-Dmagicbeans.pool.nodes=65536",
+        "-Dmagicbeans.tt.entries=65536"})
+public class BatchPlayoutBenchmark {
+    // Four vectors of 16 ints with AVX-512
+    static final int BATCH = 64;
+
+    @Param({"opening", "midgame"})
+    public String position;
+
+    @Param({"mancalagame", "board", "lockstep", "vector"})
+    public String backend;
+
+    @Param({"random", "greedy"})
+    public String policy;
+
+    // Moves after which the playout is evaluated statically, 0 for none.
+    @Param({"0", "16"})
+    public int depth;
+
+    private MancalaGame game;
+    private MagicBeansAgent agent;
+    private MagicBeansAgent.Worker worker;
+    private FastGame start;
+    private FastGame cutoff;
+    private RolloutPolicy rolloutPolicy;
+    private LockstepPlayouts batch;
+    private int player;
+
+    @Setup
+    public void setup() {
+        game = Positions.create(position);
+        agent = new MagicBeansAgent();
+        agent.prepareTurn(PlayoutBenchmark.UNLIMITED_SECONDS, game);
+        rolloutPolicy = new RolloutPolicy(policy.equals("greedy"), 0.1, depth);
+        agent.setRolloutPolicy(rolloutPolicy);
+        worker = agent.new Worker(agent.findRoot(game));
+        FastGame.Layout layout = FastGame.Layout.of(game);
+        start = new FastGame(layout, Positions.SLOTS * Positions.STONES);
+        start.load(game);
+        cutoff = new FastGame(layout, Positions.SLOTS * Positions.STONES);
+        player = game.getState().getCurrentPlayer();
+        if (backend.equals("lockstep")) {
+            batch = new LockstepPlayouts(layout, Positions.SLOTS * Positions.STONES, BATCH, false);
+        } else if (backend.equals("vector")) {
+            batch = new VectorPlayouts(layout, Positions.SLOTS * Positions.STONES, BATCH, false);
+            checkAgainstLockstep(layout);
+        }
+    }
+
+    /**
+     * The backend has to play the same playouts as the plain lockstep loop for the same seed.
+     */
+    private void checkAgainstLockstep(FastGame.Layout layout) {
+        LockstepPlayouts reference = new LockstepPlayouts(layout, Positions.SLOTS * Positions.STONES, BATCH, false);
+        batch.clear();
+        for (int i = 0; i < BATCH; i++) {
+            batch.add(start);
+            reference.add(start);
+        }
+        batch.run(rolloutPolicy, 42L);
+        reference.run(rolloutPolicy, 42L);
+        FastGame expected = new FastGame(layout, Positions.SLOTS * Positions.STONES);
+        for (int lane = 0; lane < BATCH; lane++) {
+            batch.unpack(lane, cutoff);
+            reference.unpack(lane, expected);
+            boolean same = batch.winner(lane) == reference.winner(lane);
+            for (int pit = 0; pit < layout.size; pit++) same &= cutoff.stonesIn(pit) == expected.stonesIn(pit);
+            if (!same) throw new IllegalStateException(backend + " differs from lockstep in lane " + lane);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public double playouts() {
+        double sum = 0.;
+        switch (backend) {
+            case "mancalagame":
+                for (int i = 0; i < BATCH; i++) sum += mancalaGamePlayout();
+                break;
+            case "board":
+                for (int i = 0; i < BATCH; i++) sum += agent.simulate(start, worker);
+                break;
+            default:
+                batch.clear();
+                for (int i = 0; i < BATCH; i++) batch.add(start);
+                batch.run(rolloutPolicy);
+                for (int lane = 0; lane < BATCH; lane++) sum += value(batch.winner(lane), batch.unpack(lane, cutoff));
+        }
+        return sum;
+    }
+
+    private double mancalaGamePlayout() {
+        MancalaGame copy = new MancalaGame(game);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int movesLeft = depth > 0 ? depth : Integer.MAX_VALUE;
+        WinState state;
+        // Like FastGame.winner(), a depot with more than half of the stones ends the game as well.
+        while ((state = copy.checkIfPlayerWins()).getState() == WinState.States.NOBODY && movesLeft-- > 0) {
+            for (int id = 0; id < 2; id++) {
+                int depot = copy.getState().stonesIn(copy.getBoard().getDepotOfPlayer(id));
+                if (depot > Positions.SLOTS * Positions.STONES) return id == player ? 1. : 0.;
+            }
+            List<String> slots = copy.getSelectableSlots();
+            if (!copy.selectSlot(slots.get(random.nextInt(slots.size())))) copy.nextPlayer();
+        }
+        switch (state.getState()) {
+            case SOMEONE: return state.getPlayerId() == player ? 1. : 0.;
+            case MULTIPLE: return 0.5;
+            default:
+                cutoff.load(copy);
+                return RolloutPolicy.evaluate(cutoff, player, Positions.SLOTS * Positions.STONES);
+        }
+    }
+
+    private double value(int winner, FastGame board) {
+        if (winner == FastGame.NONE) return RolloutPolicy.evaluate(board, player, Positions.SLOTS * Positions.STONES);
+        return winner == FastGame.DRAW ? 0.5 : winner == player ? 1. : 0.;
+    }
+}
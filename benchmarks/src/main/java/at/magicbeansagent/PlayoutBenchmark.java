@@ -0,0 +1,60 @@
+package at.magicbeansagent;
+
+import at.pwd.boardgame.game.mancala.MancalaGame;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One playout with MagicBeansAgent.simulate() from a fixed position, per rollout policy and depth cutoff.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Dmagicbeans.pool.nodes=65536", "-Dmagicbeans.tt.entries=65536"})
+public class PlayoutBenchmark {
+    // Large enough that inTime() never ends a playout.
+    static final int UNLIMITED_SECONDS = 1_000_000;
+
+    @Param({"opening", "midgame", "endgame"})
+    public String position;
+
+    @Param({"random", "greedy"})
+    public String policy;
+
+    // Moves after which the playout is evaluated statically, 0 for none.
+    @Param({"0", "8"})
+    public int depth;
+
+    private MagicBeansAgent agent;
+    private MagicBeansAgent.Worker worker;
+    private FastGame start;
+
+    @Setup
+    public void setup() {
+        MancalaGame game = Positions.create(position);
+        agent = new MagicBeansAgent();
+        agent.prepareTurn(UNLIMITED_SECONDS, game);
+        agent.setRolloutPolicy(new RolloutPolicy(policy.equals("greedy"), 0.1, depth));
+        worker = agent.new Worker(agent.findRoot(game));
+        start = new FastGame(FastGame.Layout.of(game), Positions.SLOTS * Positions.STONES);
+        start.load(game);
+    }
+
+    @Benchmark
+    public double simulate() {
+        return agent.simulate(start, worker);
+    }
+}
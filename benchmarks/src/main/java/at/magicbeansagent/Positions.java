@@ -0,0 +1,59 @@
+package at.magicbeansagent;
+
+import at.pwd.boardgame.game.base.WinState;
+import at.pwd.boardgame.game.mancala.MancalaGame;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Fixed positions for the benchmarks. Each position is reached by playing seeded random moves from the start, so
+ * every run measures the same boards.
+ */
+final class Positions {
+    static final int SLOTS = 6;
+    static final int STONES = 6;
+
+    private Positions() {
+    }
+
+    /**
+     * @param name: "opening", "midgame" or "endgame".
+     * @return A new game in the named position, with at least two moves available to the player to move.
+     */
+    static MancalaGame create(String name) {
+        switch (name) {
+            case "opening": return play(0, 0L);
+            case "midgame": return play(16, 42L);
+            case "endgame": return play(34, 7L);
+            default: throw new IllegalArgumentException("Unknown position: " + name);
+        }
+    }
+
+    /**
+     * @return True if a depot holds more than half of all stones, the agent treats such positions as game over.
+     */
+    private static boolean decided(MancalaGame game) {
+        for (int id = 0; id < 2; id++) {
+            if (game.getState().stonesIn(game.getBoard().getDepotOfPlayer(id)) > SLOTS * STONES) return true;
+        }
+        return false;
+    }
+
+    private static MancalaGame play(int plies, long seed) {
+        for (long attempt = seed; ; attempt++) {
+            Random random = new Random(attempt);
+            MancalaGame game = new MancalaGame(SLOTS, STONES);
+            int ply = 0;
+            while (ply < plies && game.checkIfPlayerWins().getState() == WinState.States.NOBODY) {
+                List<String> slots = game.getSelectableSlots();
+                if (!game.selectSlot(slots.get(random.nextInt(slots.size())))) game.nextPlayer();
+                ply++;
+            }
+            if (ply == plies && game.checkIfPlayerWins().getState() == WinState.States.NOBODY
+                    && game.getSelectableSlots().size() > 1 && !decided(game)) {
+                return game;
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package at.magicbeansagent;
+
+import at.pwd.boardgame.game.mancala.MancalaGame;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full doTurn() searches with a fixed time budget, starting from an empty tree every time.
+ * The playouts counter is reported per second, i.e. as playouts/sec.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1)
+public class SearchBenchmark {
+    // doTurn() aims for 0.8 of the budget left after the safety margin: 0.8 * (1000 - 600) = 320 ms until the margin
+    // is calibrated, at most 0.8 * (1000 - 200) = 640 ms afterwards. Decided turns stop earlier, critical ones use
+    // the whole remainder.
+    static final int BUDGET_SECONDS = 1;
+
+    @Param({"opening", "midgame", "endgame"})
+    public String position;
+
+    private MancalaGame game;
+    private MagicBeansAgent agent;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long playouts;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            playouts = 0;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        game = Positions.create(position);
+        agent = new MagicBeansAgent();
+        agent.setSearchListener(metrics -> { });   // collects TurnMetrics, including phase timings
+    }
+
+    @Benchmark
+    public void search(Counters counters) {
+        agent.clearTree();
+        agent.doTurn(BUDGET_SECONDS, game);
+        counters.playouts += agent.getLastMetrics().getPlayouts();
+    }
+}
@@ -0,0 +1,114 @@
+package at.magicbeansagent;
+
+import at.pwd.boardgame.game.mancala.MancalaGame;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tree operations of MagicBeansAgent on a tree grown by a fixed number of search iterations from a fixed position.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Dmagicbeans.pool.nodes=262144", "-Dmagicbeans.tt.entries=65536"})
+public class TreeBenchmark {
+    static final int TREE_ITERATIONS = 10_000;
+    static final double UCB_C = 10.;
+
+    @State(Scope.Thread)
+    public static class GrownTree {
+        @Param({"opening", "midgame", "endgame"})
+        public String position;
+
+        MancalaGame game;
+        MagicBeansAgent agent;
+        MagicBeansAgent.Worker worker;
+        int root;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            game = Positions.create(position);
+            agent = new MagicBeansAgent();
+            agent.prepareTurn(PlayoutBenchmark.UNLIMITED_SECONDS, game);
+            root = agent.findRoot(game);
+            worker = agent.new Worker(root);
+            for (int i = 0; i < TREE_ITERATIONS && !agent.getPool().hasFlag(root, NodePool.PROVEN); i++) {
+                worker.iterate();
+            }
+        }
+    }
+
+    /**
+     * A root with no children, recreated before every call.
+     */
+    @State(Scope.Thread)
+    public static class FreshRoot {
+        @Param({"opening", "midgame", "endgame"})
+        public String position;
+
+        MancalaGame game;
+        MagicBeansAgent agent;
+        MagicBeansAgent.Worker worker;
+        int root;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            game = Positions.create(position);
+            agent = new MagicBeansAgent();
+            agent.prepareTurn(PlayoutBenchmark.UNLIMITED_SECONDS, game);
+        }
+
+        // Level.Invocation adds timestamping overhead, but expansion has to start from an unexpanded node.
+        @Setup(Level.Invocation)
+        public void reset() {
+            agent.clearTree();
+            root = agent.findRoot(game);
+            worker = agent.new Worker(root);
+            agent.select(root, MagicBeansAgent.Selection.UCT, UCB_C, worker);
+        }
+    }
+
+    @Benchmark
+    public int getChildWithBestScore(GrownTree tree) {
+        return tree.agent.getChildWithBestScore(tree.root, UCB_C, false, true, false);
+    }
+
+    @Benchmark
+    public int selectAndBackPropagate(GrownTree tree) {
+        int leaf = tree.agent.select(tree.root, MagicBeansAgent.Selection.UCT, UCB_C, tree.worker);
+        tree.agent.backPropagation(leaf, 1, 1., tree.worker);
+        tree.worker.clearPath();
+        return leaf;
+    }
+
+    /**
+     * Transposition table lookup of the root position, which replaced getMatchingNode().
+     */
+    @Benchmark
+    public int findRoot(GrownTree tree) {
+        return tree.agent.findRoot(tree.game);
+    }
+
+    /**
+     * Expands every move of the root, i.e. one addChild() per legal move.
+     */
+    @Benchmark
+    public int expand(FreshRoot fresh) {
+        int count = fresh.agent.expand(fresh.root, fresh.worker);
+        fresh.worker.clearPath();
+        return count;
+    }
+}
@@ -0,0 +1,211 @@
+package at.magicbeansagent;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * LockstepPlayouts with step() on the incubating Vector API: every vector holds one pit of as many lanes as the
+ * preferred species has ints (8 with AVX2), and all per-lane decisions are masks. Lanes whose playout is over keep
+ * running through the arithmetic with pit -1, which no pit matches, so they do not change. Gives the same playouts
+ * as LockstepPlayouts for the same seeds.
+ *
+ * Needs --add-modules jdk.incubator.vector at compile and run time, so it stays in the benchmarks module and the
+ * agent only offers the plain lockstep backend.
+ */
+public final class VectorPlayouts extends LockstepPlayouts {
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    public VectorPlayouts(FastGame.Layout layout, int pointsToWin, int lanes, boolean crossCheck) {
+        super(layout, pointsToWin, lanes, crossCheck);
+        if (capacity % SPECIES.length() != 0) {
+            throw new IllegalStateException("Capacity " + capacity + " is not a multiple of " + SPECIES.length());
+        }
+    }
+
+    @Override
+    void step() {
+        for (int base = 0; base < count; base += SPECIES.length()) {
+            IntVector none = IntVector.broadcast(SPECIES, FastGame.NONE);
+            VectorMask<Integer> running = IntVector.fromArray(SPECIES, active, base).compare(VectorOperators.NE, 0);
+            if (!running.anyTrue()) {
+                none.intoArray(move, base);
+                continue;
+            }
+
+            // Two xorshift32 draws per lane
+            IntVector seed = xorshift(IntVector.fromArray(SPECIES, seeds, base));
+            IntVector epsilonDraw = seed.lanewise(VectorOperators.LSHR, 16);
+            seed = xorshift(seed);
+            IntVector moveDraw = seed.lanewise(VectorOperators.LSHR, 16);
+            seed.intoArray(seeds, base);
+
+            VectorMask<Integer> explore = greedy ? epsilonDraw.compare(VectorOperators.LT, epsilonThreshold)
+                    : running;
+            IntVector pit = randomPit(base, moveDraw);
+            if (greedy) {
+                IntVector greedyPit = greedyPit(base);
+                VectorMask<Integer> useGreedy = explore.not().and(greedyPit.compare(VectorOperators.GE, 0));
+                pit = pit.blend(greedyPit, useGreedy);
+            }
+            pit = none.blend(pit, running);
+            IntVector zero = IntVector.zero(SPECIES);
+            zero.blend(1, explore.and(running)).intoArray(explored, base);
+            IntVector player = IntVector.fromArray(SPECIES, mover, base);
+            // Absolute pit: the own pits of player 1 start at n + 1.
+            pit.add(player.mul(n + 1)).blend(none, running.not()).intoArray(move, base);
+
+            // Sowing
+            IntVector stones = zero;
+            for (int i = 0; i < n; i++) {
+                IntVector pits_i = IntVector.fromArray(SPECIES, pits, i * capacity + base);
+                VectorMask<Integer> chosen = pit.compare(VectorOperators.EQ, i);
+                stones = stones.blend(pits_i, chosen);
+                pits_i.blend(0, chosen).intoArray(pits, i * capacity + base);
+            }
+            IntVector laps = zero;
+            IntVector rest = stones;
+            VectorMask<Integer> lap;
+            while ((lap = rest.compare(VectorOperators.GE, cycle)).anyTrue()) {
+                laps = laps.add(1, lap);
+                rest = rest.sub(cycle, lap);
+            }
+            for (int j = 0; j < cycle; j++) {
+                IntVector distance = pit.neg().add(j - 1);
+                distance = distance.add(cycle, distance.compare(VectorOperators.LT, 0));
+                IntVector sown = laps.add(1, distance.compare(VectorOperators.LT, rest));
+                IntVector.fromArray(SPECIES, pits, j * capacity + base).add(sown).intoArray(pits, j * capacity + base);
+            }
+            IntVector last = pit.add(rest).blend(pit, rest.compare(VectorOperators.EQ, 0));
+            last = last.sub(cycle, last.compare(VectorOperators.GE, cycle));
+            VectorMask<Integer> again = last.compare(VectorOperators.EQ, n).and(running);
+
+            // Capture
+            IntVector captured = zero;
+            for (int i = 0; i < n; i++) {
+                IntVector own = IntVector.fromArray(SPECIES, pits, i * capacity + base);
+                IntVector opposite = IntVector.fromArray(SPECIES, pits, (2 * n - i) * capacity + base);
+                VectorMask<Integer> capture = last.compare(VectorOperators.EQ, i)
+                        .and(own.compare(VectorOperators.EQ, 1)).and(opposite.compare(VectorOperators.GT, 0));
+                if (!capture.anyTrue()) continue;
+                captured = captured.add(opposite.add(1), capture);
+                own.blend(0, capture).intoArray(pits, i * capacity + base);
+                opposite.blend(0, capture).intoArray(pits, (2 * n - i) * capacity + base);
+            }
+            IntVector.fromArray(SPECIES, pits, n * capacity + base).add(captured).intoArray(pits, n * capacity + base);
+
+            // Game over, same conditions as FastGame.winner()
+            IntVector ownSide = zero;
+            IntVector enemySide = zero;
+            for (int i = 0; i < n; i++) {
+                ownSide = ownSide.add(IntVector.fromArray(SPECIES, pits, i * capacity + base));
+                enemySide = enemySide.add(IntVector.fromArray(SPECIES, pits, (n + 1 + i) * capacity + base));
+            }
+            IntVector ownDepot = IntVector.fromArray(SPECIES, pits, n * capacity + base);
+            IntVector enemyDepot = IntVector.fromArray(SPECIES, pits, (2 * n + 1) * capacity + base);
+            VectorMask<Integer> empty = ownSide.compare(VectorOperators.EQ, 0)
+                    .or(enemySide.compare(VectorOperators.EQ, 0));
+            IntVector own = ownDepot.add(ownSide);
+            IntVector enemy = enemyDepot.add(enemySide);
+            VectorMask<Integer> ownWins = empty.and(own.compare(VectorOperators.GT, enemy))
+                    .or(empty.not().and(ownDepot.compare(VectorOperators.GT, pointsToWin)));
+            VectorMask<Integer> enemyWins = empty.and(own.compare(VectorOperators.LT, enemy))
+                    .or(empty.not().and(ownDepot.compare(VectorOperators.LE, pointsToWin))
+                            .and(enemyDepot.compare(VectorOperators.GT, pointsToWin)));
+            VectorMask<Integer> draw = empty.and(own.compare(VectorOperators.EQ, enemy));
+            VectorMask<Integer> over = ownWins.or(enemyWins).or(draw).and(running);
+            IntVector result = IntVector.broadcast(SPECIES, FastGame.DRAW)
+                    .blend(player, ownWins).blend(player.neg().add(1), enemyWins);
+            IntVector.fromArray(SPECIES, winner, base).blend(result, over).intoArray(winner, base);
+            IntVector.fromArray(SPECIES, active, base).blend(0, over).intoArray(active, base);
+
+            // Change of turn: swap the halves of the board
+            VectorMask<Integer> turn = running.andNot(again).andNot(over);
+            if (!turn.anyTrue()) continue;
+            for (int i = 0; i <= n; i++) {
+                IntVector a = IntVector.fromArray(SPECIES, pits, i * capacity + base);
+                IntVector b = IntVector.fromArray(SPECIES, pits, (i + n + 1) * capacity + base);
+                a.blend(b, turn).intoArray(pits, i * capacity + base);
+                b.blend(a, turn).intoArray(pits, (i + n + 1) * capacity + base);
+            }
+            player.blend(player.neg().add(1), turn).intoArray(mover, base);
+        }
+    }
+
+    private static IntVector xorshift(IntVector x) {
+        x = x.lanewise(VectorOperators.XOR, x.lanewise(VectorOperators.LSHL, 13));
+        x = x.lanewise(VectorOperators.XOR, x.lanewise(VectorOperators.LSHR, 17));
+        return x.lanewise(VectorOperators.XOR, x.lanewise(VectorOperators.LSHL, 5));
+    }
+
+    /**
+     * @param draw: 16-bit random number per lane.
+     * @return The (draw * legal moves / 2^16)^th non-empty own pit per lane, -1 for lanes without legal move.
+     */
+    private IntVector randomPit(int base, IntVector draw) {
+        IntVector legal = IntVector.zero(SPECIES);
+        for (int i = 0; i < n; i++) {
+            IntVector pits_i = IntVector.fromArray(SPECIES, pits, i * capacity + base);
+            legal = legal.add(1, pits_i.compare(VectorOperators.GT, 0));
+        }
+        IntVector k = draw.mul(legal).lanewise(VectorOperators.LSHR, 16);
+        IntVector pit = IntVector.broadcast(SPECIES, FastGame.NONE);
+        IntVector seen = IntVector.zero(SPECIES);
+        for (int i = 0; i < n; i++) {
+            VectorMask<Integer> nonEmpty = IntVector.fromArray(SPECIES, pits, i * capacity + base)
+                    .compare(VectorOperators.GT, 0);
+            pit = pit.blend(i, nonEmpty.and(seen.compare(VectorOperators.EQ, k)));
+            seen = seen.add(1, nonEmpty);
+        }
+        return pit;
+    }
+
+    /**
+     * Same choice as LockstepPlayouts.greedyPit() for all lanes of a vector. The stones at the landing pit and its
+     * opposite pit differ per lane and are picked by masks over the own pits.
+     * @return Greedy pit per lane, -1 if it has neither an extra turn nor a capture.
+     */
+    private IntVector greedyPit(int base) {
+        IntVector zero = IntVector.zero(SPECIES);
+        IntVector extraTurn = IntVector.broadcast(SPECIES, FastGame.NONE);
+        IntVector bestCapture = extraTurn;
+        IntVector bestGain = zero;
+        for (int i = 0; i < n; i++) {
+            IntVector stones = IntVector.fromArray(SPECIES, pits, i * capacity + base);
+            VectorMask<Integer> nonEmpty = stones.compare(VectorOperators.GT, 0);
+            if (!nonEmpty.anyTrue()) continue;
+            IntVector laps = zero;
+            IntVector rest = stones;
+            VectorMask<Integer> lap;
+            while ((lap = rest.compare(VectorOperators.GE, cycle)).anyTrue()) {
+                laps = laps.add(1, lap);
+                rest = rest.sub(cycle, lap);
+            }
+            VectorMask<Integer> extra = nonEmpty.and(rest.compare(VectorOperators.EQ, n - i));
+            extraTurn = extraTurn.blend(i, extra);
+
+            IntVector last = rest.add(i).blend(i, rest.compare(VectorOperators.EQ, 0));
+            last = last.sub(cycle, last.compare(VectorOperators.GE, cycle));
+            VectorMask<Integer> ownPit = nonEmpty.andNot(extra).and(last.compare(VectorOperators.LT, n));
+            if (!ownPit.anyTrue()) continue;
+            IntVector atLast = zero;
+            IntVector atOpposite = zero;
+            for (int j = 0; j < n; j++) {
+                VectorMask<Integer> landing = last.compare(VectorOperators.EQ, j);
+                if (j != i) atLast = atLast.blend(IntVector.fromArray(SPECIES, pits, j * capacity + base), landing);
+                atOpposite = atOpposite.blend(IntVector.fromArray(SPECIES, pits, (2 * n - j) * capacity + base),
+                        landing);
+            }
+            IntVector after = atLast.add(laps).add(1, rest.compare(VectorOperators.GT, 0));
+            IntVector opposite = atOpposite.add(laps);
+            VectorMask<Integer> capture = ownPit.and(after.compare(VectorOperators.EQ, 1))
+                    .and(opposite.compare(VectorOperators.GT, 0));
+            IntVector gain = zero.blend(opposite.add(1), capture);
+            VectorMask<Integer> better = gain.compare(VectorOperators.GT, bestGain);
+            bestGain = bestGain.blend(gain, better);
+            bestCapture = bestCapture.blend(i, better);
+        }
+        return bestCapture.blend(extraTurn, extraTurn.compare(VectorOperators.GE, 0));
+    }
+}
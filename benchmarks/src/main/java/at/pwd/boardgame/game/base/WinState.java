@@ -0,0 +1,24 @@
+package at.pwd.boardgame.game.base;
+
+/**
+ * Stand-in for the framework's WinState.
+ */
+public class WinState {
+    public enum States { SOMEONE, MULTIPLE, NOBODY }
+
+    private final States state;
+    private final int playerId;
+
+    public WinState(States state, int playerId) {
+        this.state = state;
+        this.playerId = playerId;
+    }
+
+    public States getState() {
+        return state;
+    }
+
+    public int getPlayerId() {
+        return playerId;
+    }
+}
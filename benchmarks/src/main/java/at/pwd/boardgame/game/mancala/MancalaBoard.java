@@ -0,0 +1,31 @@
+package at.pwd.boardgame.game.mancala;
+
+/**
+ * Stand-in for the framework's MancalaBoard. Slot ids run from "1" to "2n+2" clockwise, starting with the depot of
+ * player 1 on the left; the depot of player 0 is "n+2".
+ */
+public class MancalaBoard {
+    private final int slotsPerPlayer;
+    private final int stonesPerSlot;
+
+    MancalaBoard(int slotsPerPlayer, int stonesPerSlot) {
+        this.slotsPerPlayer = slotsPerPlayer;
+        this.stonesPerSlot = stonesPerSlot;
+    }
+
+    public String getDepotOfPlayer(int playerId) {
+        return playerId == 1 ? "1" : Integer.toString(slotsPerPlayer + 2);
+    }
+
+    public int getStonesPerSlot() {
+        return stonesPerSlot;
+    }
+
+    public String next(String id) {
+        return Integer.toString(Integer.parseInt(id) % (2 * slotsPerPlayer + 2) + 1);
+    }
+
+    int getSlotsPerPlayer() {
+        return slotsPerPlayer;
+    }
+}
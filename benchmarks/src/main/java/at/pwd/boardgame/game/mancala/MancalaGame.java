@@ -0,0 +1,113 @@
+package at.pwd.boardgame.game.mancala;
+
+import at.pwd.boardgame.game.base.WinState;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stand-in for the framework's MancalaGame implementing Kalah rules on top of string slot ids.
+ */
+public class MancalaGame {
+    private final MancalaBoard board;
+    private final MancalaState state;
+
+    public MancalaGame(int slotsPerPlayer, int stonesPerSlot) {
+        this.board = new MancalaBoard(slotsPerPlayer, stonesPerSlot);
+        this.state = new MancalaState(2 * slotsPerPlayer + 2);
+        for (int id = 1; id <= 2 * slotsPerPlayer + 2; id++) {
+            String slot = Integer.toString(id);
+            if (!isDepot(slot)) state.addStones(slot, stonesPerSlot);
+        }
+    }
+
+    public MancalaGame(MancalaGame game) {
+        this.board = game.board;
+        this.state = new MancalaState(game.state);
+    }
+
+    public MancalaState getState() {
+        return state;
+    }
+
+    public MancalaBoard getBoard() {
+        return board;
+    }
+
+    /**
+     * Sows the stones of the given slot.
+     * @return True if the current player may move again, otherwise false.
+     */
+    public boolean selectSlot(String id) {
+        int player = state.getCurrentPlayer();
+        String ownDepot = board.getDepotOfPlayer(player);
+        String enemyDepot = board.getDepotOfPlayer(1 - player);
+
+        int stones = state.removeStones(id);
+        String current = id;
+        while (stones > 0) {
+            current = board.next(current);
+            if (current.equals(enemyDepot)) continue;
+            state.addStones(current, 1);
+            stones--;
+        }
+
+        if (current.equals(ownDepot)) return checkIfPlayerWins().getState() == WinState.States.NOBODY;
+
+        if (ownerOf(current) == player && state.stonesIn(current) == 1) {
+            String opposite = oppositeOf(current);
+            if (state.stonesIn(opposite) > 0) {
+                int captured = state.removeStones(opposite) + state.removeStones(current);
+                state.addStones(ownDepot, captured);
+            }
+        }
+        return false;
+    }
+
+    public void nextPlayer() {
+        state.setCurrentPlayer(1 - state.getCurrentPlayer());
+    }
+
+    public List<String> getSelectableSlots() {
+        List<String> slots = new ArrayList<>();
+        int player = state.getCurrentPlayer();
+        for (int id = 1; id <= 2 * board.getSlotsPerPlayer() + 2; id++) {
+            String slot = Integer.toString(id);
+            if (!isDepot(slot) && ownerOf(slot) == player && state.stonesIn(slot) > 0) slots.add(slot);
+        }
+        return slots;
+    }
+
+    /**
+     * The game ends as soon as one side of the board is empty; remaining stones count for their owner.
+     */
+    public WinState checkIfPlayerWins() {
+        int[] total = new int[2];
+        boolean[] empty = {true, true};
+        for (int id = 1; id <= 2 * board.getSlotsPerPlayer() + 2; id++) {
+            String slot = Integer.toString(id);
+            int stones = state.stonesIn(slot);
+            if (isDepot(slot)) {
+                total[slot.equals(board.getDepotOfPlayer(0)) ? 0 : 1] += stones;
+            } else {
+                total[ownerOf(slot)] += stones;
+                if (stones > 0) empty[ownerOf(slot)] = false;
+            }
+        }
+        if (!empty[0] && !empty[1]) return new WinState(WinState.States.NOBODY, -1);
+        if (total[0] == total[1]) return new WinState(WinState.States.MULTIPLE, -1);
+        return new WinState(WinState.States.SOMEONE, total[0] > total[1] ? 0 : 1);
+    }
+
+    private boolean isDepot(String id) {
+        return id.equals(board.getDepotOfPlayer(0)) || id.equals(board.getDepotOfPlayer(1));
+    }
+
+    private int ownerOf(String id) {
+        return Integer.parseInt(id) < Integer.parseInt(board.getDepotOfPlayer(0)) ? 0 : 1;
+    }
+
+    private String oppositeOf(String id) {
+        return Integer.toString(2 * board.getSlotsPerPlayer() + 4 - Integer.parseInt(id));
+    }
+}
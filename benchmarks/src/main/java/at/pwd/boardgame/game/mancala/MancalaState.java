@@ -0,0 +1,41 @@
+package at.pwd.boardgame.game.mancala;
+
+/**
+ * Stand-in for the framework's MancalaState: stone counts keyed by slot id and the player to move.
+ */
+public class MancalaState {
+    private final int[] stones;
+    private int currentPlayer;
+
+    MancalaState(int numIds) {
+        this.stones = new int[numIds + 1];
+    }
+
+    MancalaState(MancalaState other) {
+        this.stones = other.stones.clone();
+        this.currentPlayer = other.currentPlayer;
+    }
+
+    public int stonesIn(String id) {
+        return stones[Integer.parseInt(id)];
+    }
+
+    public void addStones(String id, int amount) {
+        stones[Integer.parseInt(id)] += amount;
+    }
+
+    public int removeStones(String id) {
+        int index = Integer.parseInt(id);
+        int removed = stones[index];
+        stones[index] = 0;
+        return removed;
+    }
+
+    public int getCurrentPlayer() {
+        return currentPlayer;
+    }
+
+    public void setCurrentPlayer(int currentPlayer) {
+        this.currentPlayer = currentPlayer;
+    }
+}
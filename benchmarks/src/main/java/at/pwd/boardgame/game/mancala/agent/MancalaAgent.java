@@ -0,0 +1,10 @@
+package at.pwd.boardgame.game.mancala.agent;
+
+import at.pwd.boardgame.game.mancala.MancalaGame;
+
+/**
+ * Stand-in for the framework's MancalaAgent.
+ */
+public interface MancalaAgent {
+    MancalaAgentAction doTurn(int computationTime, MancalaGame game);
+}
@@ -0,0 +1,16 @@
+package at.pwd.boardgame.game.mancala.agent;
+
+/**
+ * Stand-in for the framework's MancalaAgentAction.
+ */
+public class MancalaAgentAction {
+    private final String id;
+
+    public MancalaAgentAction(String id) {
+        this.id = id;
+    }
+
+    public String getId() {
+        return id;
+    }
+}